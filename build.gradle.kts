@@ -4,6 +4,14 @@ plugins {
     id("io.freefair.lombok") version "8.0.1"
 }
 
+// benchmarks, run with e.g. gradle jmh --args="CodecBenchmark -prof gc"
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+
 repositories {
     mavenLocal()
     maven {
@@ -24,6 +32,15 @@ dependencies {
     compileOnly("net.kyori:adventure-text-serializer-legacy:4.13.1")
     compileOnly("io.github.miniplaceholders:miniplaceholders-api:2.1.0")
     compileOnly("net.luckperms:api:5.4")
+
+    testImplementation(platform("org.junit:junit-bom:5.9.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    // provided by the server at runtime, the skin requests parse the mojang responses with it
+    testImplementation("com.google.code.gson:gson:2.10.1")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 group = "net.trustgames"
@@ -60,3 +77,14 @@ tasks.withType<JavaCompile> {
 tasks.withType<Javadoc> {
     options.encoding = "UTF-8"
 }
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+}
@@ -0,0 +1,73 @@
+package net.trustgames.toolkit.event;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posting to a method annotated with {@link Subscribe} (called through the generated invoker)
+ * compared to posting to an {@link EventSubscriber} lambda and to a subscriber calling the method by reflection
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+    private final TestEvent event = new TestEvent();
+    private SimpleEventBus<TestEvent> listenerBus;
+    private SimpleEventBus<TestEvent> subscriberBus;
+    private SimpleEventBus<TestEvent> reflectionBus;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws NoSuchMethodException {
+        Listener listener = new Listener(blackhole);
+        listenerBus = new SimpleEventBus<>(TestEvent.class);
+        listenerBus.register(listener);
+        subscriberBus = new SimpleEventBus<>(TestEvent.class);
+        subscriberBus.subscribe(TestEvent.class, listener::onEvent);
+        Method method = Listener.class.getMethod("onEvent", TestEvent.class);
+        reflectionBus = new SimpleEventBus<>(TestEvent.class);
+        reflectionBus.subscribe(TestEvent.class, event -> {
+            try {
+                method.invoke(listener, event);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Benchmark
+    public PostResult listener() {
+        return listenerBus.post(event);
+    }
+
+    @Benchmark
+    public PostResult subscriber() {
+        return subscriberBus.post(event);
+    }
+
+    @Benchmark
+    public PostResult reflection() {
+        return reflectionBus.post(event);
+    }
+
+    public static class TestEvent implements Event {
+    }
+
+    public static class Listener {
+        private final Blackhole blackhole;
+
+        public Listener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Subscribe
+        public void onEvent(TestEvent event) {
+            blackhole.consume(event);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.trustgames.toolkit.event;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posting of an event whose subscribers are registered for it and for its supertype.
+ * Run with {@code -prof gc} to see that posting doesn't allocate.
+ * The {@code churn} group posts from three threads while the fourth one keeps subscribing and unsubscribing,
+ * which shows the posting threads aren't slowed down by the lock of the subscribers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostBenchmark {
+    @Param({"1", "10"})
+    public int subscribers;
+
+    private SimpleEventBus<BaseEvent> bus;
+    private final ChildEvent event = new ChildEvent();
+    private EventSubscriber<ChildEvent> churning;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        bus = new SimpleEventBus<>(BaseEvent.class);
+        for (int i = 0; i < subscribers; i++) {
+            if (i % 2 == 0) {
+                bus.subscribe(ChildEvent.class, blackhole::consume);
+            } else {
+                bus.subscribe(BaseEvent.class, blackhole::consume);
+            }
+        }
+        churning = blackhole::consume;
+    }
+
+    @Benchmark
+    public PostResult post() {
+        return bus.post(event);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public PostResult postWhileChanging() {
+        return bus.post(event);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void subscribeAndUnsubscribe() {
+        bus.subscribe(ChildEvent.class, churning);
+        bus.unsubscribe(churning);
+    }
+
+    public static class BaseEvent implements Event {
+    }
+
+    public static class ChildEvent extends BaseEvent {
+    }
+}
@@ -0,0 +1,58 @@
+package net.trustgames.toolkit.message_queue.event.codec;
+
+import net.trustgames.toolkit.database.player.data.config.PlayerDataType;
+import net.trustgames.toolkit.database.player.data.event.PlayerDataUpdateEvent;
+import net.trustgames.toolkit.database.player.data.event.PlayerDataUpdateEventConfig;
+import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the player data update with the binary codec and with JSON.
+ * The sizes of the bodies are checked by {@code BinaryEventCodecTest}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private EventCodec<PlayerDataUpdateEvent> binary;
+    private EventCodec<PlayerDataUpdateEvent> json;
+    private PlayerDataUpdateEvent event;
+    private byte[] binaryBody;
+    private byte[] jsonBody;
+
+    @Setup
+    public void setup() {
+        RabbitEventConfig<PlayerDataUpdateEvent> config = new PlayerDataUpdateEventConfig().config();
+        binary = config.codec();
+        json = new JsonEventCodec<>(config.toJson(), config.fromJson());
+        event = new PlayerDataUpdateEvent(UUID.randomUUID(), PlayerDataType.GEMS, "1250", 42, 1_700_000_000_000L);
+        binaryBody = binary.encode(event);
+        jsonBody = json.encode(event);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return binary.encode(event);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return json.encode(event);
+    }
+
+    @Benchmark
+    public PlayerDataUpdateEvent decodeBinary() {
+        return binary.decode(binaryBody);
+    }
+
+    @Benchmark
+    public PlayerDataUpdateEvent decodeJson() {
+        return json.decode(jsonBody);
+    }
+}
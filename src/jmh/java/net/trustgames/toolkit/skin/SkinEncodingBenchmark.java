@@ -0,0 +1,53 @@
+package net.trustgames.toolkit.skin;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of the skin data stored in redis, with and without the compression.
+ * The number of bytes stored per skin is checked by {@code SkinCacheTest}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkinEncodingBenchmark {
+    @Param({"true", "false"})
+    public boolean compress;
+
+    private SkinCache cache;
+    private String texture;
+    private String signature;
+    private byte[] encodedTexture;
+    private byte[] encodedSignature;
+
+    @Setup
+    public void setup() {
+        cache = new SkinCache(null, compress);
+        texture = Base64.getEncoder().encodeToString(("{\"timestamp\":1700000000000,"
+                + "\"profileId\":\"069a79f444e94726a5befca90e38aaf5\",\"profileName\":\"Notch\",\"signatureRequired\":true,"
+                + "\"textures\":{\"SKIN\":{\"url\":\"http://textures.minecraft.net/texture/"
+                + "292009a4925b58f02c77dadc3ecef07ea4c7472f64e0fdc32ce5522489362680\"}}}").getBytes(StandardCharsets.UTF_8));
+        byte[] signatureBytes = new byte[512];
+        new Random(1).nextBytes(signatureBytes);
+        signature = Base64.getEncoder().encodeToString(signatureBytes);
+        encodedTexture = cache.encode(texture);
+        encodedSignature = cache.encode(signature);
+    }
+
+    @Benchmark
+    public int encode() {
+        return cache.encode(texture).length + cache.encode(signature).length;
+    }
+
+    @Benchmark
+    public int decode() {
+        return SkinCache.decode(encodedTexture).length() + SkinCache.decode(encodedSignature).length();
+    }
+}
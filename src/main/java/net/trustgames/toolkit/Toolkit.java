@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.Setter;
 import net.trustgames.toolkit.database.HikariManager;
 import net.trustgames.toolkit.message_queue.RabbitManager;
+import net.trustgames.toolkit.message_queue.event.EventMetrics;
 import net.trustgames.toolkit.message_queue.event.RabbitEventManager;
 import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.JedisPool;
@@ -29,6 +30,14 @@ public final class Toolkit {
     public static void main(String[] args) {
     }
 
+    /**
+     * @return Latencies of the received events and the backlog of the event queues,
+     * or null if the event manager isn't set
+     */
+    public @Nullable EventMetrics getEventMetrics() {
+        return rabbitEventManager != null ? rabbitEventManager.metrics() : null;
+    }
+
 
     /**
      * Closes all connections that Toolkit instance uses
@@ -37,6 +46,9 @@ public final class Toolkit {
         if (hikariManager != null && hikariManager.isDataSourceInitialized())
             hikariManager.close();
 
+        if (rabbitEventManager != null)
+            rabbitEventManager.close();
+
         if (rabbitManager != null && rabbitManager.isChannelInitialized())
             rabbitManager.close();
 
@@ -1,5 +1,6 @@
 package net.trustgames.toolkit.database.player.data;
 
+import net.trustgames.toolkit.cache.RedisCacheIntervalConfig;
 import net.trustgames.toolkit.database.player.data.config.PlayerDataType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -12,6 +13,25 @@ import java.util.stream.Collectors;
 import static net.trustgames.toolkit.cache.RedisCache.expire;
 
 public class PlayerDataCache {
+    private static final String VERSION_FIELD = "version";
+    private static final String VERSION_EPOCH_FIELD = "version_epoch";
+    /*
+     sets the value and increments the version in one step, so the versions are in the order of the writes.
+     The epoch is the time the player's hash got its first version, so the versions
+     starting again after the hash expired (or redis was restarted) are still recognized as newer.
+     The time is taken from redis, so the clocks of the servers don't matter.
+     Older redis versions need the writes after TIME to be replicated as effects
+    */
+    private static final String UPDATE_VERSIONED_SCRIPT = """
+            if redis.replicate_commands then redis.replicate_commands() end
+            local time = redis.call('TIME')
+            local now = string.format('%d', tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000))
+            redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])
+            redis.call('HSETNX', KEYS[1], ARGV[3], now)
+            local version = redis.call('HINCRBY', KEYS[1], ARGV[4], 1)
+            redis.call('EXPIRE', KEYS[1], ARGV[5])
+            return {tonumber(redis.call('HGET', KEYS[1], ARGV[3])), version}
+            """;
 
     @Nullable
     private final JedisPool pool;
@@ -75,6 +95,39 @@ public class PlayerDataCache {
         }
     }
 
+    /**
+     * Get the specified data types from the cache by one operation
+     *
+     * @param uuid UUID of the Player
+     * @param dataTypes which data types to get the data of
+     * @return Map of the data types and Optional with the value or empty
+     */
+    public Map<PlayerDataType, Optional<String>> getData(@NotNull UUID uuid,
+                                                         @NotNull Collection<PlayerDataType> dataTypes) {
+        if (dataTypes.contains(PlayerDataType.UUID)){
+            throw new RuntimeException("Use the method specified for getting UUID from the cache!");
+        }
+
+        Map<PlayerDataType, Optional<String>> resultMap = new EnumMap<>(PlayerDataType.class);
+        if (pool == null || dataTypes.isEmpty()) {
+            dataTypes.forEach(dataType -> resultMap.put(dataType, Optional.empty()));
+            return resultMap;
+        }
+
+        List<PlayerDataType> dataTypeList = List.copyOf(dataTypes);
+        try (Jedis jedis = pool.getResource()) {
+            List<String> data = jedis.hmget(uuid.toString(), dataTypeList.stream()
+                    .map(PlayerDataType::getColumnName)
+                    .toArray(String[]::new));
+            jedis.expire(uuid.toString(), RedisCacheIntervalConfig.EXPIRY.getSeconds());
+
+            for (int i = 0; i < dataTypeList.size(); i++) {
+                resultMap.put(dataTypeList.get(i), Optional.ofNullable(data.get(i)));
+            }
+            return resultMap;
+        }
+    }
+
     /**
      * Get the UUID by the name
      *
@@ -162,6 +215,30 @@ public class PlayerDataCache {
         }
     }
 
+    /**
+     * Replace the specified data type in the cache with the given value and increment the player's data version
+     * by one operation. The version is sent with the {@link net.trustgames.toolkit.database.player.data.event.PlayerDataUpdateEvent}
+     * to be able to tell which update is newer.
+     *
+     * @param uuid UUID of the player
+     * @param dataType Data type to set the value of
+     * @param value The new value to be set
+     * @return The new version, or {@link DataVersion#NONE} if the cache is not available
+     */
+    @SuppressWarnings("unchecked")
+    public @NotNull DataVersion updateDataVersioned(@NotNull UUID uuid,
+                                                    @NotNull PlayerDataType dataType,
+                                                    @NotNull String value) {
+        if (pool == null) return DataVersion.NONE;
+        try (Jedis jedis = pool.getResource()) {
+            List<Long> result = (List<Long>) jedis.eval(UPDATE_VERSIONED_SCRIPT, List.of(uuid.toString()), List.of(
+                    dataType.getColumnName(), value,
+                    VERSION_EPOCH_FIELD,
+                    VERSION_FIELD, String.valueOf(RedisCacheIntervalConfig.EXPIRY.getSeconds())));
+            return new DataVersion(result.get(0), result.get(1));
+        }
+    }
+
     /**
      * Update the UUID of the Player in the cache
      *
@@ -176,4 +253,15 @@ public class PlayerDataCache {
             expire(pool, uuid.toString());
         }
     }
+
+    /**
+     * Version of the player's data. Versions are only comparable within the same epoch,
+     * a newer epoch means the versions started again
+     *
+     * @param epoch Time in millis the versions started at
+     * @param version Version within the epoch (higher is newer)
+     */
+    public record DataVersion(long epoch, long version) {
+        public static final DataVersion NONE = new DataVersion(0, 0);
+    }
 }
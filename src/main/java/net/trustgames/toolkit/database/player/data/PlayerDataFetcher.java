@@ -84,6 +84,23 @@ public final class PlayerDataFetcher {
     private Map<PlayerDataType, Optional<Object>> fetchCollectionByKey(@NotNull FetchKey key,
                                                                        @NotNull String keyValue,
                                                                        @NotNull Collection<PlayerDataType> dataTypes) {
+        try {
+            return queryCollectionByKey(key, keyValue, dataTypes);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while getting collection of " + dataTypes + " data types from the database by " + key.getDataType().getColumnName() + keyValue, e);
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Same as {@link #fetchCollectionByKey(FetchKey, String, Collection)},
+     * but the exception is passed on, so it can't be mistaken for missing data
+     *
+     * @throws SQLException if the data couldn't be fetched
+     */
+    private Map<PlayerDataType, Optional<Object>> queryCollectionByKey(@NotNull FetchKey key,
+                                                                       @NotNull String keyValue,
+                                                                       @NotNull Collection<PlayerDataType> dataTypes) throws SQLException {
         Map<PlayerDataType, Optional<Object>> fetchedData = new HashMap<>();
         try (Connection connection = hikariManager.getConnection(); PreparedStatement statement = connection.prepareStatement(generateSQLQueryForCollection(key, keyValue, dataTypes))) {
             try (ResultSet results = statement.executeQuery()) {
@@ -94,8 +111,6 @@ public final class PlayerDataFetcher {
                     }
                 }
             }
-        } catch (SQLException e) {
-            LOGGER.log(Level.SEVERE, "Exception occurred while getting collection of " + dataTypes + " data types from the database by " + key.getDataType().getColumnName() + keyValue, e);
         }
         return fetchedData;
     }
@@ -111,14 +126,28 @@ public final class PlayerDataFetcher {
     Map<PlayerDataType, Optional<String>> resolveFetchCollectionByKey(@NotNull FetchKey key,
                                                                       @NotNull String keyValue,
                                                                       @NotNull Collection<PlayerDataType> dataTypes) {
-        // LEVEL cannot be explicitly fetched from database, so convert to XP for now
-        List<PlayerDataType> convertedLevelToXP = dataTypes.stream()
+        return toStringValues(dataTypes, fetchCollectionByKey(key, keyValue, convertLevelToXp(dataTypes)));
+    }
+
+    /**
+     * LEVEL cannot be explicitly fetched from database, so it's converted to XP
+     */
+    private List<PlayerDataType> convertLevelToXp(Collection<PlayerDataType> dataTypes) {
+        return dataTypes.stream()
                 .map(dataType -> dataType == PlayerDataType.LEVEL ? PlayerDataType.XP : dataType)
                 .distinct()
                 .toList();
+    }
 
+    /**
+     * @param dataTypes Data types which were supposed to be fetched, including LEVEL
+     * @param fetched Values fetched from the database
+     * @return The values as strings, with LEVEL calculated from the fetched XP
+     */
+    private Map<PlayerDataType, Optional<String>> toStringValues(Collection<PlayerDataType> dataTypes,
+                                                                 Map<PlayerDataType, Optional<Object>> fetched) {
         // collection values in Optional<Object> to Optional<String>
-        Map<PlayerDataType, Optional<String>> fetchedDataTypes = fetchCollectionByKey(key, keyValue, convertedLevelToXP)
+        Map<PlayerDataType, Optional<String>> fetchedDataTypes = fetched
                 .entrySet()
                 .stream()
                 .collect(Collectors.toMap(
@@ -130,7 +159,8 @@ public final class PlayerDataFetcher {
          and add it to the map of fetched values
         */
         if (dataTypes.contains(PlayerDataType.LEVEL)) {
-            fetchedDataTypes.get(PlayerDataType.XP).ifPresent(string -> {
+            // the row might not exist, then nothing was fetched
+            fetchedDataTypes.getOrDefault(PlayerDataType.XP, Optional.empty()).ifPresent(string -> {
                 int level = LevelUtils.getLevelByXp(Integer.parseInt(string));
                 fetchedDataTypes.put(PlayerDataType.LEVEL, Optional.of(String.valueOf(level)));
             });
@@ -170,9 +200,10 @@ public final class PlayerDataFetcher {
             statement.executeUpdate();
             connection.commit();
 
-            dataCache.updateData(uuid, dataType, newValue.toString());
+            PlayerDataCache.DataVersion version = dataCache.updateDataVersioned(uuid, dataType, newValue.toString());
 
-            PlayerDataUpdateEvent event = new PlayerDataUpdateEvent(uuid, dataType);
+            // the new value is sent along, so the receivers don't need to resolve it again
+            PlayerDataUpdateEvent event = new PlayerDataUpdateEvent(uuid, dataType, newValue.toString(), version.version(), version.epoch());
             eventManager.publish(event, new PlayerDataUpdateEventConfig().config());
         } catch (SQLException e) {
             LOGGER.log(Level.SEVERE, "Exception occurred while modifying " + dataType.getColumnName() + " data type in the database by UUID " + uuid, e);
@@ -522,6 +553,65 @@ public final class PlayerDataFetcher {
         );
     }
 
+    /**
+     * Tries to get the data types integer values from the cache by one operation.
+     * The ones which aren't in the cache are fetched from the database by one query
+     * and put to the cache.
+     *
+     * @param uuid UUID of the Player
+     * @param dataTypes Data types to get the values of
+     * @return Map of the data types and Optional of the player's data or empty
+     * @throws RuntimeException if the cache or the database couldn't be read
+     * @see PlayerDataFetcher#resolveIntData(UUID, PlayerDataType)
+     */
+    public Map<PlayerDataType, OptionalInt> resolveIntData(@NotNull UUID uuid,
+                                                           @NotNull Collection<PlayerDataType> dataTypes) {
+        Map<PlayerDataType, Optional<String>> data = new EnumMap<>(PlayerDataType.class);
+        data.putAll(dataCache.getData(uuid, dataTypes));
+
+        List<PlayerDataType> missingDataTypes = data.entrySet().stream()
+                .filter(entry -> entry.getValue().isEmpty())
+                .map(Map.Entry::getKey)
+                .toList();
+        if (!missingDataTypes.isEmpty()) {
+            Map<PlayerDataType, Optional<String>> databaseData;
+            try {
+                databaseData = toStringValues(missingDataTypes, queryCollectionByKey(FetchKey.UUID, uuid.toString(), convertLevelToXp(missingDataTypes)));
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to get " + missingDataTypes + " data types from the database by UUID " + uuid, e);
+            }
+            Map<PlayerDataType, String> cacheUpdateData = new EnumMap<>(PlayerDataType.class);
+            for (PlayerDataType dataType : missingDataTypes) {
+                Optional<String> value = databaseData.getOrDefault(dataType, Optional.empty());
+                value.ifPresent(string -> cacheUpdateData.put(dataType, string));
+                data.put(dataType, value);
+            }
+            if (!cacheUpdateData.isEmpty()) {
+                dataCache.updateData(uuid, cacheUpdateData);
+            }
+        }
+
+        Map<PlayerDataType, OptionalInt> intData = new EnumMap<>(PlayerDataType.class);
+        data.forEach((dataType, value) -> intData.put(dataType, convertOptional(value.map(Integer::parseInt))));
+        return intData;
+    }
+
+    /**
+     * Unlike the other async methods, the failure is passed on, so it can't be mistaken for missing data
+     *
+     * @return Future completed exceptionally if the data couldn't be resolved
+     * @see PlayerDataFetcher#resolveIntData(UUID, Collection)
+     */
+    public CompletableFuture<Map<PlayerDataType, OptionalInt>> resolveIntDataAsync(@NotNull UUID uuid,
+                                                                                   @NotNull Collection<PlayerDataType> dataTypes) {
+        return CompletableFuture.supplyAsync(() -> resolveIntData(uuid, dataTypes))
+                .whenComplete((result, exception) -> {
+                    if (exception != null) {
+                        LOGGER.log(Level.SEVERE, "Exception occurred while resolving player int data " + dataTypes + " by UUID " + uuid + " async", exception);
+                    }
+                });
+    }
+
     /**
      * Tries to get the specific data type integer value from the cache.
      * If it's not in the cache, it tries to get it from the database
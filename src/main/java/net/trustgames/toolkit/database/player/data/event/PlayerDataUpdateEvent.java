@@ -3,10 +3,27 @@ package net.trustgames.toolkit.database.player.data.event;
 import net.trustgames.toolkit.database.player.data.config.PlayerDataType;
 import net.trustgames.toolkit.message_queue.event.RabbitEvent;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.UUID;
 
+/**
+ * @param uuid UUID of the player whose data was updated
+ * @param dataType Data type that was updated
+ * @param value The new value, or null if not sent (needs to be resolved)
+ * @param version Per-player version of the update (higher is newer), or 0 if not versioned
+ * @param epoch Time in millis the player's versions started at, versions of a newer epoch are always newer
+ * @see PlayerDataUpdateTracker
+ */
 public record PlayerDataUpdateEvent(@NotNull UUID uuid,
-                                    @NotNull PlayerDataType dataType)
+                                    @NotNull PlayerDataType dataType,
+                                    @Nullable String value,
+                                    long version,
+                                    long epoch)
         implements RabbitEvent {
+
+    public PlayerDataUpdateEvent(@NotNull UUID uuid,
+                                 @NotNull PlayerDataType dataType) {
+        this(uuid, dataType, null, 0, 0);
+    }
 }
@@ -3,6 +3,7 @@ package net.trustgames.toolkit.database.player.data.event;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.BuiltinExchangeType;
 import net.trustgames.toolkit.database.player.data.config.PlayerDataType;
+import net.trustgames.toolkit.message_queue.event.codec.BinaryEventCodec;
 import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
 import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfigBuilder;
 import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfigFactory;
@@ -11,23 +12,73 @@ import org.json.JSONObject;
 
 import java.util.UUID;
 
+/**
+ * The updates are published with routing key {@code player-data-update.<column name>},
+ * so servers can subscribe only to the data types they need using {@link #bindingKey(PlayerDataType)}.
+ * The player's UUID is the presence key, so servers with presence bindings get only the updates of their players.
+ */
 public class PlayerDataUpdateEventConfig implements RabbitEventConfigFactory<PlayerDataUpdateEvent> {
+    private static final String ROUTING_KEY_PREFIX = "player-data-update.";
+
+    /**
+     * @param dataType Data type to receive the updates of
+     * @return Binding key to subscribe with to receive only the updates of the data type
+     */
+    public static @NotNull String bindingKey(@NotNull PlayerDataType dataType) {
+        return ROUTING_KEY_PREFIX + dataType.getColumnName() + ".#";
+    }
 
     @Override
     public @NotNull RabbitEventConfig<PlayerDataUpdateEvent> config() {
         return new RabbitEventConfigBuilder<PlayerDataUpdateEvent>()
-                .exchangeName("event.player-data-update")
-                .exchangeType(BuiltinExchangeType.FANOUT)
-                .exchangeRoutingKey("player-data-update.#")
+                // TOPIC exchange, so the broker filters the updates by the subscribers' bindings.
+                // Named differently from the former FANOUT one, as the type of existing exchange can't be changed
+                .exchangeName("event.player-data-update.topic")
+                .exchangeType(BuiltinExchangeType.TOPIC)
+                .exchangeRoutingKey(ROUTING_KEY_PREFIX + "#")
+                .routingKey(event -> ROUTING_KEY_PREFIX + event.dataType().getColumnName())
                 .properties(new AMQP.BasicProperties().builder().expiration("10000").build())
+                .orderingKey(PlayerDataUpdateEvent::uuid)
+                .presenceKey(PlayerDataUpdateEvent::uuid)
                 .toJson(event -> new JSONObject()
                         .put("uuid", event.uuid())
                         .put("data-type", event.dataType())
+                        .putOpt("value", event.value())
+                        .put("version", event.version())
+                        .put("epoch", event.epoch())
                 )
                 .fromJson(jsonObject -> new PlayerDataUpdateEvent(
                         UUID.fromString(jsonObject.getString("uuid")),
-                        jsonObject.getEnum(PlayerDataType.class, "data-type"))
+                        jsonObject.getEnum(PlayerDataType.class, "data-type"),
+                        jsonObject.optString("value", null),
+                        jsonObject.optLong("version", 0),
+                        jsonObject.optLong("epoch", 0))
                 )
+                .codec(new BinaryEventCodec<>(
+                        (event, writer) -> {
+                            writer.writeUUID(event.uuid())
+                                    .writeEnum(event.dataType())
+                                    .writeVarLong(event.version())
+                                    .writeBoolean(event.value() != null);
+                            if (event.value() != null) {
+                                writer.writeString(event.value());
+                            }
+                            writer.writeVarLong(event.epoch());
+                        },
+                        reader -> {
+                            UUID uuid = reader.readUUID();
+                            PlayerDataType dataType = reader.readEnum(PlayerDataType.class);
+                            // events from older versions end after the data type
+                            if (reader.remaining() == 0) {
+                                return new PlayerDataUpdateEvent(uuid, dataType);
+                            }
+                            long version = reader.readVarLong();
+                            String value = reader.readBoolean() ? reader.readString() : null;
+                            // events from older versions don't have the epoch
+                            long epoch = reader.remaining() == 0 ? 0 : reader.readVarLong();
+                            return new PlayerDataUpdateEvent(uuid, dataType, value, version, epoch);
+                        }
+                ))
                 .build();
     }
 }
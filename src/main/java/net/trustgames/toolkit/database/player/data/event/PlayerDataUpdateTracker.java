@@ -0,0 +1,67 @@
+package net.trustgames.toolkit.database.player.data.event;
+
+import net.trustgames.toolkit.database.player.data.config.PlayerDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the last version of each player's data type received in {@link PlayerDataUpdateEvent},
+ * so the updates which arrive out of order can be dropped rather than overwriting newer values.
+ * The versions start again when the player's cache is lost, such updates come with a newer epoch
+ * and replace all the remembered versions of the player.
+ * Players should be removed once they leave the server to not keep their versions forever.
+ */
+public final class PlayerDataUpdateTracker {
+    private static final PlayerDataType[] DATA_TYPES = PlayerDataType.values();
+    private final Map<UUID, PlayerVersions> versions = new ConcurrentHashMap<>();
+
+    /**
+     * @param event Received event
+     * @return true if the event is newer than the previously accepted event
+     * for the same player and data type (unversioned events are always accepted)
+     */
+    public boolean accept(@NotNull PlayerDataUpdateEvent event) {
+        if (event.version() <= 0) {
+            return true;
+        }
+        PlayerVersions playerVersions = versions.computeIfAbsent(event.uuid(), uuid -> new PlayerVersions());
+        int index = event.dataType().ordinal();
+        synchronized (playerVersions) {
+            if (event.epoch() < playerVersions.epoch) {
+                return false;
+            }
+            if (event.epoch() > playerVersions.epoch) {
+                playerVersions.epoch = event.epoch();
+                Arrays.fill(playerVersions.versions, 0);
+            }
+            if (event.version() <= playerVersions.versions[index]) {
+                return false;
+            }
+            playerVersions.versions[index] = event.version();
+            return true;
+        }
+    }
+
+    /**
+     * @param uuid UUID of the player to forget the versions of
+     */
+    public void remove(@NotNull UUID uuid) {
+        versions.remove(uuid);
+    }
+
+    /**
+     * Forgets the versions of all the players
+     */
+    public void clear() {
+        versions.clear();
+    }
+
+    private static final class PlayerVersions {
+        private final long[] versions = new long[DATA_TYPES.length];
+        private long epoch;
+    }
+}
@@ -0,0 +1,32 @@
+package net.trustgames.toolkit.database.skin;
+
+import lombok.Getter;
+import net.trustgames.toolkit.database.DatabaseTable;
+import net.trustgames.toolkit.database.HikariManager;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * This class handles the creation of the skins database table,
+ * which keeps the skins fetched from the mojang servers after they expire from the redis cache
+ */
+public final class SkinDB extends DatabaseTable {
+
+    @Getter
+    private static final String tableName = "skins";
+
+    public SkinDB(@NotNull HikariManager hikariManager) {
+        super(hikariManager, tableName);
+    }
+
+    @Override
+    protected String sqlStatement() {
+        return "CREATE TABLE IF NOT EXISTS " + tableName + "(" +
+                "uuid VARCHAR(36) primary key," +
+                "name VARCHAR(16)," +
+                "texture TEXT NOT NULL," +
+                "signature TEXT NOT NULL," +
+                "fetched_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "INDEX (name)," +
+                "INDEX (fetched_at))";
+    }
+}
@@ -5,6 +5,8 @@ import net.trustgames.toolkit.message_queue.event.RabbitEventBus;
 import net.trustgames.toolkit.message_queue.event.RabbitEventManager;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 
 /*
@@ -38,6 +40,17 @@ import java.util.function.Predicate;
  */
 public interface EventBus<E extends Event> {
 
+    /**
+     * Creates an event bus for the events posted in this JVM.
+     *
+     * @param type the event type
+     * @param <E> the event type
+     * @return an event bus
+     */
+    static <E extends Event> @NotNull SimpleEventBus<E> create(final @NotNull Class<E> type) {
+        return new SimpleEventBus<>(type);
+    }
+
     /**
      * Creates an event bus for RabbitMQ.
      *
@@ -60,6 +73,19 @@ public interface EventBus<E extends Event> {
         return new RabbitEventBus<>(eventManager, type, accepts);
     }
 
+    /**
+     * Creates an event bus for RabbitMQ, which runs the subscribers
+     * with the same post order in parallel on the executor.
+     *
+     * @param type the event type
+     * @param asyncExecutor the executor to run the subscribers on
+     * @param <E> the event type
+     * @return an event bus
+     */
+    static <E extends RabbitEvent> @NotNull RabbitEventBus<E> rabbitEventBus(final @NotNull RabbitEventManager eventManager, final @NotNull Class<E> type, final @NotNull Executor asyncExecutor) {
+        return new RabbitEventBus<>(eventManager, type, Accepts.nonCancelledWhenNotAcceptingCancelled(), asyncExecutor);
+    }
+
     /**
      * Gets the type of events accepted by this event bus.
      *
@@ -77,6 +103,19 @@ public interface EventBus<E extends Event> {
      */
     @NotNull PostResult post(final @NotNull E event);
 
+    /**
+     * Posts an event to all registered subscribers without blocking the caller.
+     * Subscribers with the same post order run in parallel, the subscribers
+     * with later post order run once all the earlier ones finish.
+     * By default, the event is posted synchronously and the completed result is returned.
+     *
+     * @param event the event
+     * @return the future post result of the operation
+     */
+    default @NotNull CompletableFuture<PostResult> postAsync(final @NotNull E event) {
+        return CompletableFuture.completedFuture(this.post(event));
+    }
+
     /**
      * Determines whether the specified event has been subscribed to.
      *
@@ -0,0 +1,274 @@
+package net.trustgames.toolkit.event;
+
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Shared by the event buses, not meant to be used outside the toolkit
+ */
+@ApiStatus.Internal
+public final class Internals {
+    private Internals() {
+    }
+
+    // https://github.com/Kaoaki/ksl/blob/master/src/main/java/net/kaoaki/ksl/reflection/Types.java
+    /*
+     * This file is part of ksl, licensed under the MIT License.
+     *
+     * Copyright (c) 2021 KyoriPowered
+     *
+     * Permission is hereby granted, free of charge, to any person obtaining a copy
+     * of this software and associated documentation files (the "Software"), to deal
+     * in the Software without restriction, including without limitation the rights
+     * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+     * copies of the Software, and to permit persons to whom the Software is
+     * furnished to do so, subject to the following conditions:
+     *
+     * The above copyright notice and this permission notice shall be included in all
+     * copies or substantial portions of the Software.
+     *
+     * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+     * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+     * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
+     * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+     * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+     * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+     * SOFTWARE.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> @NotNull List<Class<? super T>> ancestors(final @NotNull Class<T> type) {
+        final List<Class<? super T>> types = new ArrayList<>();
+        types.add(type);
+        for(int i = 0; i < types.size(); i++) {
+            final Class<?> next = types.get(i);
+            final Class<?> superclass = next.getSuperclass();
+            if(superclass != null) {
+                types.add((Class<? super T>) superclass);
+            }
+            final Class<?>[] interfaces = next.getInterfaces();
+            for(final Class<?> iface : interfaces) {
+                // we have a list because we want to preserve order, but we don't want duplicates
+                if(!types.contains(iface)) {
+                    types.add((Class<? super T>) iface);
+                }
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Posts the event tier by tier, where a tier are the subscribers with the same post order.
+     * Subscribers of one tier run in parallel on the executor, the next tier starts once all of them finish.
+     * Whether a subscriber accepts the event is checked when its tier starts,
+     * so cancelling the event in one tier affects the following ones.
+     *
+     * @param subscribers Subscribers sorted by the post order
+     * @param accepts Tests if the subscriber accepts the event
+     * @return Future completed once all the tiers finish, never exceptionally
+     */
+    public static <E> @NotNull CompletableFuture<PostResult> postTiered(final @NotNull E event,
+                                                                       final @NotNull EventSubscriber<? super E>[] subscribers,
+                                                                       final @NotNull BiPredicate<E, EventSubscriber<? super E>> accepts,
+                                                                       final @NotNull Executor executor) {
+        final Map<EventSubscriber<?>, Throwable> exceptions = new ConcurrentHashMap<>();
+        return postTier(event, subscribers, 0, accepts, executor, exceptions)
+                .thenApply(ignored -> exceptions.isEmpty() ? PostResult.success() : PostResult.failure(exceptions));
+    }
+
+    private static <E> CompletableFuture<Void> postTier(final E event,
+                                                        final EventSubscriber<? super E>[] subscribers,
+                                                        final int start,
+                                                        final BiPredicate<E, EventSubscriber<? super E>> accepts,
+                                                        final Executor executor,
+                                                        final Map<EventSubscriber<?>, Throwable> exceptions) {
+        if(start >= subscribers.length) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int end = start;
+        while(end < subscribers.length && subscribers[end].postOrder() == subscribers[start].postOrder()) {
+            end++;
+        }
+
+        final List<CompletableFuture<Void>> tier = new ArrayList<>(end - start);
+        for(int i = start; i < end; i++) {
+            final EventSubscriber<? super E> subscriber = subscribers[i];
+            try {
+                if(!accepts.test(event, subscriber)) continue;
+                tier.add(CompletableFuture.runAsync(() -> subscriber.onEvent(event), executor)
+                        .exceptionally(throwable -> {
+                            exceptions.put(subscriber, throwable instanceof CompletionException && throwable.getCause() != null
+                                    ? throwable.getCause()
+                                    : throwable);
+                            return null;
+                        }));
+            } catch(final Throwable t) {
+                // thrown by the acceptor, or by the executor rejecting the task
+                exceptions.put(subscriber, t);
+            }
+        }
+        final int next = end;
+        return CompletableFuture.allOf(tier.toArray(CompletableFuture[]::new))
+                .thenCompose(ignored -> postTier(event, subscribers, next, accepts, executor, exceptions));
+    }
+
+    /**
+     * Subscribers of an event bus. The subscribers are looked up without locking. Each event class
+     * has its own sorted array of subscribers, which is computed once and kept until the subscribers change.
+     *
+     * @param <E> Event type
+     */
+    public static final class Subscribers<E> {
+        private static final Comparator<EventSubscriber<?>> COMPARATOR = Comparator.comparingInt(EventSubscriber::postOrder);
+        private final ClassValue<Collection<? extends Class<?>>> classes = new ClassValue<>() {
+            @Override
+            protected Collection<? extends Class<?>> computeValue(final @NotNull Class<?> type) {
+                final Collection<? extends Class<?>> classes = ancestors(type);
+                classes.removeIf(klass -> !Subscribers.this.type.isAssignableFrom(klass));
+                return classes;
+            }
+        };
+        private final Map<Class<? extends E>, List<EventSubscriber<? super E>>> unbaked = new HashMap<>();
+        private volatile Baked<E> baked = new Baked<>(this, Map.of());
+        private final Object lock = new Object();
+        private final Class<E> type;
+        private final BiPredicate<E, EventSubscriber<? super E>> accepts;
+
+        /**
+         * @param type Event type of the bus
+         * @param accepts Tests if the subscriber accepts the event
+         */
+        public Subscribers(final @NotNull Class<E> type, final @NotNull BiPredicate<E, EventSubscriber<? super E>> accepts) {
+            this.type = type;
+            this.accepts = accepts;
+        }
+
+        /**
+         * @return Subscribers of the event class and its supertypes, sorted by the post order
+         */
+        public @NotNull EventSubscriber<? super E>[] get(final @NotNull Class<?> event) {
+            return this.baked.get(event);
+        }
+
+        public boolean subscribed(final @NotNull Class<?> event) {
+            return this.baked.get(event).length > 0;
+        }
+
+        /**
+         * Changes the subscribers while holding the lock and then publishes the new snapshot
+         *
+         * @param change Changes the subscribers by the event class
+         */
+        public void modify(final @NotNull Consumer<Map<Class<? extends E>, List<EventSubscriber<? super E>>>> change) {
+            synchronized(this.lock) {
+                change.accept(this.unbaked);
+                this.rebake();
+            }
+        }
+
+        public void removeIf(final @NotNull Predicate<EventSubscriber<? super E>> predicate) {
+            synchronized(this.lock) {
+                boolean dirty = false;
+                for(final List<EventSubscriber<? super E>> subscribers : this.unbaked.values()) {
+                    dirty |= subscribers.removeIf(predicate);
+                }
+                if(dirty) {
+                    this.rebake();
+                }
+            }
+        }
+
+        /**
+         * Nothing is allocated unless a subscriber throws
+         */
+        public @NotNull PostResult post(final @NotNull E event) {
+            // the first failure is kept aside, so the map is only needed if more subscribers fail
+            EventSubscriber<?> failedSubscriber = null;
+            Throwable failure = null;
+            Map<EventSubscriber<?>, Throwable> exceptions = null;
+            for(final EventSubscriber<? super E> subscriber : this.baked.get(event.getClass())) {
+                try {
+                    if(this.accepts.test(event, subscriber)) {
+                        subscriber.onEvent(event);
+                    }
+                } catch(final Throwable t) {
+                    if(failedSubscriber == null) {
+                        failedSubscriber = subscriber;
+                        failure = t;
+                    } else {
+                        if(exceptions == null) {
+                            exceptions = new HashMap<>();
+                            exceptions.put(failedSubscriber, failure);
+                        }
+                        exceptions.put(subscriber, t);
+                    }
+                }
+            }
+            if(failedSubscriber == null) {
+                return PostResult.success();
+            } else if(exceptions == null) {
+                return PostResult.failure(failedSubscriber, failure);
+            } else {
+                return PostResult.failure(exceptions);
+            }
+        }
+
+        /**
+         * @see Internals#postTiered(Object, EventSubscriber[], BiPredicate, Executor)
+         */
+        public @NotNull CompletableFuture<PostResult> postTiered(final @NotNull E event, final @NotNull Executor executor) {
+            return Internals.postTiered(event, this.baked.get(event.getClass()), this.accepts, executor);
+        }
+
+        /**
+         * Publishes a new snapshot of the subscribers, needs to be called while holding the lock
+         */
+        private void rebake() {
+            final Map<Class<?>, List<EventSubscriber<? super E>>> snapshot = new HashMap<>();
+            for(final Map.Entry<Class<? extends E>, List<EventSubscriber<? super E>>> entry : this.unbaked.entrySet()) {
+                snapshot.put(entry.getKey(), List.copyOf(entry.getValue()));
+            }
+            this.baked = new Baked<>(this, snapshot);
+        }
+    }
+
+    /**
+     * Sorted subscriber arrays, computed once per event class from an immutable snapshot
+     * of the subscribers. The whole instance is replaced when the subscribers change,
+     * so the readers never see a half-updated state and don't need the lock.
+     */
+    private static final class Baked<E> extends ClassValue<EventSubscriber<? super E>[]> {
+        private final Subscribers<E> subscribers;
+        private final Map<Class<?>, List<EventSubscriber<? super E>>> snapshot;
+
+        Baked(final Subscribers<E> subscribers, final Map<Class<?>, List<EventSubscriber<? super E>>> snapshot) {
+            this.subscribers = subscribers;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected EventSubscriber<? super E>[] computeValue(final @NotNull Class<?> event) {
+            final List<EventSubscriber<? super E>> sorted = new ArrayList<>();
+            for(final Class<?> type : this.subscribers.classes.get(event)) {
+                sorted.addAll(this.snapshot.getOrDefault(type, Collections.emptyList()));
+            }
+            sorted.sort(Subscribers.COMPARATOR);
+            return sorted.toArray(new EventSubscriber[0]);
+        }
+    }
+}
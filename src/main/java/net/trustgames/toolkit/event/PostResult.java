@@ -3,7 +3,6 @@ package net.trustgames.toolkit.event;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 /*
@@ -60,7 +59,18 @@ public abstract class PostResult {
         if(exceptions.isEmpty()) {
             throw new IllegalStateException("no exceptions present");
         }
-        return new Failure(new HashMap<>(exceptions));
+        return new Failure(Map.copyOf(exceptions));
+    }
+
+    /**
+     * Marks that an exception was thrown by a single subscriber.
+     *
+     * @param subscriber the subscriber which threw the exception
+     * @param exception the exception that was thrown
+     * @return a {@link PostResult} indicating failure
+     */
+    public static @NotNull PostResult failure(final @NotNull EventSubscriber<?> subscriber, final @NotNull Throwable exception) {
+        return new Failure(Map.of(subscriber, exception));
     }
 
     /**
@@ -0,0 +1,229 @@
+package net.trustgames.toolkit.event;
+
+import net.trustgames.toolkit.Toolkit;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * {@link EventBus} which posts the events to the subscribers in the same JVM.
+ * Besides the {@link EventSubscriber} instances, the methods of a listener
+ * annotated with {@link Subscribe} can be registered. These are invoked by classes generated
+ * with {@link LambdaMetafactory}, so the call is as fast as a direct one, without reflection.
+ * <p>
+ * The subscribers are looked up without locking. Each event class has its own sorted array
+ * of subscribers, which is computed once and kept until the subscribers change.
+ *
+ * @param <E> Event type
+ */
+public final class SimpleEventBus<E extends Event> implements EventBus<E> {
+    private static final ClassValue<List<ListenerMethod>> LISTENER_METHODS = new ClassValue<>() {
+        @Override
+        protected List<ListenerMethod> computeValue(final @NotNull Class<?> type) {
+            return findListenerMethods(type);
+        }
+    };
+    private final Internals.Subscribers<E> subscribers;
+    private final Class<E> type;
+    private final Executor asyncExecutor;
+
+    public SimpleEventBus(final @NotNull Class<E> type) {
+        this(type, Accepts.nonCancelledWhenNotAcceptingCancelled());
+    }
+
+    public SimpleEventBus(final @NotNull Class<E> type, final @NotNull Accepts<E> accepts) {
+        this(type, accepts, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param asyncExecutor Executor to run the subscribers on in {@link #postAsync(Event)}
+     */
+    public SimpleEventBus(final @NotNull Class<E> type, final @NotNull Accepts<E> accepts, final @NotNull Executor asyncExecutor) {
+        this.type = type;
+        this.subscribers = new Internals.Subscribers<>(type, (event, subscriber) -> accepts.accepts(type, event, subscriber));
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    @Override
+    public @NotNull Class<E> type() {
+        return this.type;
+    }
+
+    @Override
+    public @NotNull PostResult post(final @NotNull E event) {
+        return this.subscribers.post(event);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<PostResult> postAsync(final @NotNull E event) {
+        return this.subscribers.postTiered(event, this.asyncExecutor);
+    }
+
+    @Override
+    public boolean subscribed(final @NotNull Class<? extends E> type) {
+        return this.subscribers.subscribed(type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends E> void subscribe(final @NotNull Class<T> event, final @NotNull EventSubscriber<? super T> subscriber) {
+        this.subscribers.modify(unbaked -> unbaked.computeIfAbsent(event, key -> new ArrayList<>()).add((EventSubscriber<? super E>) subscriber));
+    }
+
+    @Override
+    public <T extends E> void unsubscribe(final @NotNull EventSubscriber<? super T> subscriber) {
+        this.unsubscribeIf(subscriber::equals);
+    }
+
+    @Override
+    public void unsubscribeIf(final @NotNull Predicate<EventSubscriber<? super E>> predicate) {
+        this.subscribers.removeIf(predicate);
+    }
+
+    /**
+     * Subscribes all the methods of the listener annotated with {@link Subscribe}
+     *
+     * @param listener Listener instance
+     * @throws IllegalArgumentException if an annotated method doesn't take exactly one event
+     * of this bus's type or is static
+     */
+    @SuppressWarnings("unchecked")
+    public void register(final @NotNull Object listener) {
+        final List<ListenerMethod> methods = LISTENER_METHODS.get(listener.getClass());
+        for(final ListenerMethod method : methods) {
+            if(!this.type.isAssignableFrom(method.eventType())) {
+                throw new IllegalArgumentException("Method " + method.name() + " of " + listener.getClass().getName()
+                        + " subscribes to " + method.eventType().getName() + ", which isn't " + this.type.getName());
+            }
+        }
+        this.subscribers.modify(unbaked -> {
+            for(final ListenerMethod method : methods) {
+                unbaked.computeIfAbsent((Class<? extends E>) method.eventType(), key -> new ArrayList<>())
+                        .add(new MethodSubscriber(listener, method));
+            }
+        });
+    }
+
+    /**
+     * Unsubscribes all the methods registered by {@link #register(Object)} for the listener
+     *
+     * @param listener Listener instance
+     */
+    public void unregister(final @NotNull Object listener) {
+        this.unsubscribeIf(subscriber -> subscriber instanceof MethodSubscriber methodSubscriber
+                && methodSubscriber.listener == listener);
+    }
+
+    private static List<ListenerMethod> findListenerMethods(final Class<?> type) {
+        final List<ListenerMethod> methods = new ArrayList<>();
+        final Set<String> signatures = new HashSet<>();
+        for(Class<?> klass = type; klass != null && klass != Object.class; klass = klass.getSuperclass()) {
+            for(final Method method : klass.getDeclaredMethods()) {
+                final Subscribe subscribe = method.getAnnotation(Subscribe.class);
+                if(subscribe == null) continue;
+                if(method.getParameterCount() != 1 || Modifier.isStatic(method.getModifiers())) {
+                    throw new IllegalArgumentException("Method " + method.getName() + " of " + klass.getName()
+                            + " annotated with @Subscribe needs to be an instance method with exactly one parameter");
+                }
+                // overridden methods are only subscribed once, the invocation is virtual anyway
+                if(!signatures.add(method.getName() + method.getParameterTypes()[0].getName())) continue;
+                methods.add(new ListenerMethod(method.getName(), method.getParameterTypes()[0],
+                        subscribe.postOrder(), subscribe.acceptsCancelled(), createInvoker(method)));
+            }
+        }
+        return List.copyOf(methods);
+    }
+
+    /**
+     * Generates a class calling the method directly. The generated class needs to be defined next to the listener,
+     * which requires full access to the listener's class (e.g. the toolkit is shaded into the plugin).
+     * Otherwise, the method is called through a method handle.
+     */
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> createInvoker(final Method method) {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+            final MethodHandle target = lookup.unreflect(method);
+            final CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+                    MethodType.methodType(BiConsumer.class),
+                    MethodType.methodType(void.class, Object.class, Object.class),
+                    target,
+                    target.type().changeReturnType(void.class));
+            return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+        } catch(final Throwable t) {
+            Toolkit.LOGGER.log(Level.FINE, "Can't generate the invoker of " + method.getName() + " of "
+                    + method.getDeclaringClass().getName() + ", calling it through a method handle", t);
+        }
+
+        final MethodHandle handle;
+        try {
+            method.setAccessible(true);
+            handle = MethodHandles.lookup().unreflect(method)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch(final IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Method " + method.getName() + " of " + method.getDeclaringClass().getName() + " can't be accessed", e);
+        }
+        return (listener, event) -> {
+            try {
+                handle.invokeExact(listener, event);
+            } catch(final Throwable t) {
+                throw SimpleEventBus.<RuntimeException>sneakyThrow(t);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <X extends Throwable> X sneakyThrow(final Throwable throwable) throws X {
+        throw (X) throwable;
+    }
+
+    private record ListenerMethod(String name,
+                                  Class<?> eventType,
+                                  int postOrder,
+                                  boolean acceptsCancelled,
+                                  BiConsumer<Object, Object> invoker) {
+    }
+
+    private static final class MethodSubscriber implements EventSubscriber<Object> {
+        private final Object listener;
+        private final ListenerMethod method;
+
+        private MethodSubscriber(final Object listener, final ListenerMethod method) {
+            this.listener = listener;
+            this.method = method;
+        }
+
+        @Override
+        public void onEvent(final @NotNull Object event) {
+            this.method.invoker().accept(this.listener, event);
+        }
+
+        @Override
+        public int postOrder() {
+            return this.method.postOrder();
+        }
+
+        @Override
+        public boolean acceptsCancelled() {
+            return this.method.acceptsCancelled();
+        }
+
+        @Override
+        public String toString() {
+            return this.listener.getClass().getName() + "#" + this.method.name();
+        }
+    }
+}
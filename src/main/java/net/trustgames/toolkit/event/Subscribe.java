@@ -0,0 +1,25 @@
+package net.trustgames.toolkit.event;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a listener to be registered by {@link SimpleEventBus#register(Object)}.
+ * The method needs to have exactly one parameter, the event type it subscribes to.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Subscribe {
+    /**
+     * @return the post order of the subscriber
+     * @see PostOrder
+     */
+    int postOrder() default PostOrder.NORMAL;
+
+    /**
+     * @return {@code true} if cancelled events should be consumed by the subscriber
+     */
+    boolean acceptsCancelled() default false;
+}
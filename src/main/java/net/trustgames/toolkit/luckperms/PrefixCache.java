@@ -0,0 +1,86 @@
+package net.trustgames.toolkit.luckperms;
+
+import net.kyori.adventure.text.Component;
+import net.luckperms.api.LuckPermsProvider;
+import net.luckperms.api.event.EventBus;
+import net.luckperms.api.event.EventSubscription;
+import net.luckperms.api.event.group.GroupDataRecalculateEvent;
+import net.luckperms.api.event.user.UserDataRecalculateEvent;
+import net.luckperms.api.event.user.UserUnloadEvent;
+import net.luckperms.api.model.user.User;
+import net.trustgames.toolkit.utils.ColorUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the parsed prefixes of the online users, followed by a space if they have one.
+ * The prefixes are parsed once per prefix string, as many users share the prefix of their group.
+ * The user's prefix is dropped when LuckPerms recalculates the user's data (e.g. the group changed),
+ * and all of them when any group's data is recalculated (e.g. the group's prefix changed).
+ */
+public final class PrefixCache {
+    private final Map<String, Component> parsedPrefixes = new ConcurrentHashMap<>();
+    private final Map<UUID, Component> userPrefixes = new ConcurrentHashMap<>();
+    private final List<EventSubscription<?>> subscriptions = new ArrayList<>();
+
+    /**
+     * Subscribes to the LuckPerms events which change the prefixes
+     *
+     * @param plugin Plugin to register the subscriptions for
+     */
+    public void subscribe(@NotNull Object plugin) {
+        EventBus eventBus = LuckPermsProvider.get().getEventBus();
+        subscriptions.add(eventBus.subscribe(plugin, UserDataRecalculateEvent.class,
+                event -> userPrefixes.remove(event.getUser().getUniqueId())));
+        subscriptions.add(eventBus.subscribe(plugin, UserUnloadEvent.class,
+                event -> userPrefixes.remove(event.getUser().getUniqueId())));
+        subscriptions.add(eventBus.subscribe(plugin, GroupDataRecalculateEvent.class, event -> clear()));
+    }
+
+    /**
+     * Unsubscribes from the LuckPerms events
+     */
+    public void close() {
+        subscriptions.forEach(EventSubscription::close);
+        subscriptions.clear();
+    }
+
+    /**
+     * @param uuid UUID of the online user
+     * @return Parsed prefix followed by a space, or empty if the user doesn't have a prefix or isn't online
+     */
+    public @NotNull Component getSpacedPrefix(@NotNull UUID uuid) {
+        Component prefix = userPrefixes.get(uuid);
+        if (prefix != null) {
+            return prefix;
+        }
+        Optional<User> optUser = LuckPermsManager.getOnlineUser(uuid);
+        if (optUser.isEmpty()) {
+            return Component.empty();
+        }
+        // computed under the map's lock, so a removal by a recalculation can't be overwritten with the old prefix
+        return userPrefixes.computeIfAbsent(uuid, key -> parse(LuckPermsManager.getOnlinePlayerPrefix(optUser.get())));
+    }
+
+    /**
+     * Forgets all the parsed prefixes
+     */
+    public void clear() {
+        userPrefixes.clear();
+        parsedPrefixes.clear();
+    }
+
+    private Component parse(@Nullable String prefix) {
+        if (prefix == null) {
+            return Component.empty();
+        }
+        return parsedPrefixes.computeIfAbsent(prefix, key -> ColorUtils.color(key + " "));
+    }
+}
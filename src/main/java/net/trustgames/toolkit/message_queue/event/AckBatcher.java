@@ -0,0 +1,95 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Acknowledges the delivered messages in batches (multiple = true).
+ * As the messages can be processed out of order by the dispatch lanes,
+ * only the highest delivery tag below which all the messages are processed is acknowledged.
+ * The messages are acknowledged once the batch is full, or once the linger time has passed
+ * since the first message of the batch was processed, so they aren't left unacked when the traffic stops.
+ * Delivery tags are counted per channel, so one instance needs to be shared
+ * by all the consumers of the channel.
+ */
+final class AckBatcher {
+    private final Channel channel;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final ScheduledExecutorService scheduler;
+    private final TreeSet<Long> completedAhead = new TreeSet<>();
+    private long watermark;
+    private long lastAcked;
+    private boolean flushScheduled;
+
+    /**
+     * @param batchSize Number of processed messages to acknowledge at once
+     * @param lingerMillis Max time to wait for the batch to fill
+     * @param scheduler Scheduler to acknowledge the batches which didn't fill in time on
+     */
+    AckBatcher(@NotNull Channel channel, int batchSize, long lingerMillis, @NotNull ScheduledExecutorService scheduler) {
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Marks the message as processed and acknowledges all the processed
+     * messages once the batch is full, otherwise schedules the flush
+     *
+     * @param deliveryTag Delivery tag of the processed message
+     */
+    synchronized void completed(long deliveryTag) {
+        if (deliveryTag == watermark + 1) {
+            watermark = deliveryTag;
+            while (!completedAhead.isEmpty() && completedAhead.first() == watermark + 1) {
+                watermark = completedAhead.pollFirst();
+            }
+        } else if (deliveryTag > watermark) {
+            completedAhead.add(deliveryTag);
+        }
+
+        if (watermark - lastAcked >= batchSize) {
+            ack();
+        } else if (watermark > lastAcked && !flushScheduled) {
+            flushScheduled = true;
+            try {
+                scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the transport is closing
+                flushScheduled = false;
+                ack();
+            }
+        }
+    }
+
+    /**
+     * Acknowledges all the processed messages right away
+     */
+    synchronized void flush() {
+        flushScheduled = false;
+        if (watermark > lastAcked) {
+            ack();
+        }
+    }
+
+    private void ack() {
+        try {
+            channel.basicAck(watermark, true);
+            lastAcked = watermark;
+        } catch (IOException | ShutdownSignalException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while acknowledging messages up to delivery tag " + watermark, e);
+        }
+    }
+}
@@ -0,0 +1,700 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.*;
+import net.trustgames.toolkit.message_queue.event.codec.EventCodec;
+import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Sends the events through RabbitMQ. Declares the exchanges and queues using {@link RabbitEventConfig},
+ * converts the events to messages and back using the config's {@link EventCodec}
+ * and acknowledges the processed messages in batches.
+ * Outgoing events can optionally be collected into batch messages, which are unpacked on delivery.
+ */
+final class AmqpTransport implements EventTransport {
+    static final String ORIGIN_NODE_HEADER = "x-tg-origin-node";
+    static final String SHARD_KEY_HEADER = "x-tg-shard-key";
+    static final String PUBLISHED_AT_HEADER = "x-tg-published-at";
+    /**
+     * Ordering keys are reduced to this many buckets before hashing to shards,
+     * so the batches for sharded events don't need to be split per player
+     */
+    static final int SHARD_BUCKETS = 256;
+
+    private final String eventsExchangeName = RabbitEventManager.getEventsExchangeName();
+    private final Channel channel;
+    private final int prefetchCount;
+    private final int ackBatchSize;
+    private final long ackLingerMillis;
+    private final int dispatchLanes;
+    private final ScheduledExecutorService ackScheduler;
+    private final List<AckBatcher> ackBatchers = new CopyOnWriteArrayList<>();
+    private final AckBatcher ackBatcher;
+    private final List<Channel> shardChannels = new CopyOnWriteArrayList<>();
+    private final AtomicInteger shardExchangeCounter = new AtomicInteger();
+    private final @Nullable PublishBatcher publishBatcher;
+    private final Set<String> declaredExchanges = ConcurrentHashMap.newKeySet();
+    private final Map<String, CopyOnWriteArrayList<Receiver<?>>> localReceivers = new ConcurrentHashMap<>();
+    private final Map<Receiver<?>, Destination> destinations = new ConcurrentHashMap<>();
+    private final Map<String, String> consumedQueues = new ConcurrentHashMap<>();
+    private final RpcClient rpcClient;
+    private final UUID nodeId;
+    private final boolean localDelivery;
+    private final @Nullable EventSpool spool;
+    private final @Nullable PresenceBindings presence;
+    private volatile boolean blocked;
+
+    AmqpTransport(@NotNull RabbitEventManagerBuilder builder, @NotNull UUID nodeId) {
+        this.channel = builder.channel;
+        this.nodeId = nodeId;
+        this.prefetchCount = builder.prefetchCount;
+        this.ackBatchSize = builder.ackBatchSize;
+        this.ackLingerMillis = builder.ackLingerMillis;
+        this.dispatchLanes = builder.dispatchLanes;
+        this.ackScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TG-Toolkit event acks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ackBatcher = ackBatcher(channel);
+        this.localDelivery = builder.localDelivery;
+        this.rpcClient = new RpcClient(channel.getConnection());
+        this.spool = builder.spoolFile != null ? createSpool(builder) : null;
+        this.presence = builder.presenceLingerMillis >= 0 ? new PresenceBindings(channel, builder.presenceLingerMillis) : null;
+        this.publishBatcher = builder.batchMaxMessages > 1
+                ? new PublishBatcher(builder.batchMaxMessages, builder.batchLingerMillis, this::send)
+                : null;
+        try {
+            // applies to every consumer started on the channel afterwards
+            channel.basicQos(builder.prefetchCount);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while setting RabbitMQ prefetch count to " + builder.prefetchCount, e);
+        }
+    }
+
+    private EventSpool createSpool(RabbitEventManagerBuilder builder) {
+        EventSpool eventSpool;
+        try {
+            eventSpool = new EventSpool(builder.spoolFile, builder.spoolCapacity, builder.spoolSyncPolicy, builder.spoolOverflowPolicy,
+                    (routingKey, properties, body) -> {
+                        if (blocked) {
+                            throw new IOException("RabbitMQ connection is blocked");
+                        }
+                        channel.basicPublish(eventsExchangeName, routingKey, properties, body);
+                    });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to initialize the event spool " + builder.spoolFile, e);
+        }
+
+        channel.getConnection().addBlockedListener(new BlockedListener() {
+            @Override
+            public void handleBlocked(String reason) {
+                blocked = true;
+                LOGGER.warning("RabbitMQ connection is blocked (" + reason + "), events will be spooled");
+            }
+
+            @Override
+            public void handleUnblocked() {
+                blocked = false;
+                eventSpool.replay();
+            }
+        });
+        if (channel instanceof Recoverable recoverable) {
+            recoverable.addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recoverable) {
+                    eventSpool.replay();
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recoverable) {
+                }
+            });
+        }
+        // events left from the previous run
+        eventSpool.replay();
+        return eventSpool;
+    }
+
+    /**
+     * @return RabbitMQ channel the transport publishes and consumes on
+     */
+    @NotNull Channel channel() {
+        return channel;
+    }
+
+    /**
+     * Encode the Event using the config's codec and publish it to RabbitMQ with the event's routing key.
+     * If batching is enabled, the event is sent together with other events
+     * bound for the same routing key. Events with presence key aren't batched, as their routing key
+     * is different for each player. If local delivery is enabled, the receivers
+     * of this transport get the event right away and the copy from RabbitMQ is dropped
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends RabbitEvent> void send(@NotNull E event, @NotNull RabbitEventConfig<E> config) {
+        EventCodec<E> codec = config.codec();
+        byte[] body;
+        try {
+            body = codec.encode(event);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while encoding message for event " + event, e);
+            return;
+        }
+        AMQP.BasicProperties properties = properties(config, codec, event);
+        String routingKey = routingKey(config, event);
+        if (publishBatcher != null && config.presenceKey() == null) {
+            publishBatcher.add(routingKey, properties, body);
+        } else {
+            send(routingKey, properties, body);
+        }
+
+        List<Receiver<?>> receivers = localDelivery ? localReceivers.get(key(config)) : null;
+        if (receivers != null) {
+            long publishedMillis = System.currentTimeMillis();
+            for (Receiver<?> receiver : receivers) {
+                ((Receiver<? super E>) receiver).receive(event, publishedMillis, () -> {});
+            }
+        }
+    }
+
+    @Override
+    public void presenceChanged(@NotNull UUID player, boolean present) {
+        if (presence != null) {
+            presence.update(player, present);
+        }
+    }
+
+    /**
+     * Asks the broker for the number of ready messages in each consumed queue.
+     * A batch message counts as one, no matter how many events it holds.
+     * The counts are read on a separate channel, as the broker closes the channel
+     * if the queue doesn't exist anymore
+     */
+    @Override
+    public @NotNull Map<String, Long> backlog() {
+        Map<String, Long> backlog = new HashMap<>();
+        Channel countChannel = null;
+        try {
+            for (Map.Entry<String, String> queue : consumedQueues.entrySet()) {
+                try {
+                    if (countChannel == null || !countChannel.isOpen()) {
+                        countChannel = channel.getConnection().createChannel();
+                    }
+                    backlog.put(queue.getKey(), countChannel.messageCount(queue.getValue()));
+                } catch (IOException | ShutdownSignalException e) {
+                    LOGGER.log(Level.WARNING, "Exception occurred while getting message count of queue " + queue.getValue(), e);
+                }
+            }
+        } finally {
+            if (countChannel != null && countChannel.isOpen()) {
+                try {
+                    countChannel.close();
+                } catch (IOException | TimeoutException | ShutdownSignalException ignored) {
+                }
+            }
+        }
+        return backlog;
+    }
+
+    @Override
+    public void flush() {
+        if (publishBatcher != null) {
+            publishBatcher.flush();
+        }
+    }
+
+    @Override
+    public void close() {
+        rpcClient.close();
+        if (presence != null) {
+            presence.close();
+        }
+        if (publishBatcher != null) {
+            publishBatcher.close();
+        }
+        if (spool != null) {
+            spool.close();
+        }
+        ackScheduler.shutdownNow();
+        for (AckBatcher batcher : ackBatchers) {
+            batcher.flush();
+        }
+        for (Channel shardChannel : shardChannels) {
+            try {
+                shardChannel.close();
+            } catch (IOException | TimeoutException | ShutdownSignalException e) {
+                LOGGER.log(Level.WARNING, "Exception occurred while closing RabbitMQ shard channel", e);
+            }
+        }
+    }
+
+    /**
+     * Publishes the message, or adds it to the spool if the channel is closed or blocked.
+     * While there are spooled messages, new ones are spooled too, so they don't overtake them
+     */
+    private void send(@NotNull String routingKey, @NotNull AMQP.BasicProperties properties, byte @NotNull [] body) {
+        if (spool != null && (blocked || !channel.isOpen() || !spool.isEmpty())) {
+            spool.append(routingKey, properties, body);
+            spool.replay();
+            return;
+        }
+        try {
+            channel.basicPublish(eventsExchangeName, routingKey, properties, body);
+        } catch (IOException | ShutdownSignalException e) {
+            if (spool != null) {
+                spool.append(routingKey, properties, body);
+            } else {
+                LOGGER.log(Level.SEVERE, "Exception occurred while publishing message with routing key " + routingKey, e);
+            }
+        }
+    }
+
+    /**
+     * Declares the exchange and creates the queue (or the shard queues) and consumer for the receiver.
+     * The queue is bound to the config's exchange with the binding key
+     */
+    @Override
+    public <T extends RabbitEvent> boolean receive(@NotNull RabbitEventConfig<? super T> config,
+                                                   @NotNull String bindingKey,
+                                                   @NotNull Receiver<T> receiver) {
+        if (config.shards() > 1 && dispatchLanes < config.shards()) {
+            // the shard consumers would just wait for each other on the dispatcher lanes
+            LOGGER.log(Level.SEVERE, "Can't receive " + config.shards() + " shards of " + config.exchangeName()
+                    + " with " + dispatchLanes + " dispatch lanes, set a dispatch executor with at least as many lanes as shards");
+            return false;
+        }
+        if (!declareExchange(config)) return false;
+
+        if (config.shards() > 1) {
+            String shardExchange = receiveSharded(config, bindingKey, receiver);
+            if (shardExchange == null) return false;
+            destinations.put(receiver, new Destination(shardExchange, true));
+        } else {
+            String queueName = declareQueue(config, bindingKey);
+            if (queueName == null) return false;
+            try {
+                deliver(channel, ackBatcher, queueName, config, receiver);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error occurred while trying to consume messages from Queue " + queueName, e);
+                return false;
+            }
+            destinations.put(receiver, new Destination(queueName, false));
+        }
+        localReceivers.computeIfAbsent(key(config), key -> new CopyOnWriteArrayList<>()).add(receiver);
+        return true;
+    }
+
+    /**
+     * Binds the receiver's queue (or shard exchange) to the config's exchange with another binding key
+     */
+    @Override
+    public boolean bind(@NotNull RabbitEventConfig<?> config, @NotNull Receiver<?> receiver, @NotNull String bindingKey) {
+        Destination destination = destinations.get(receiver);
+        if (destination == null) return false;
+        try {
+            bind(config, destination, bindingKey);
+            return true;
+        } catch (IOException | ShutdownSignalException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while binding " + destination.name() + " to " + config.exchangeName()
+                    + " with binding key " + bindingKey, e);
+            return false;
+        }
+    }
+
+    /**
+     * Creates the consistent-hash exchange bound to the config's exchange
+     * and one queue per shard, each consumed on its own channel (and so on its own thread).
+     * Messages are hashed to the shards by the shard key header, so the events
+     * of one player always end up in the same queue and stay in order.
+     *
+     * @return Name of the shard exchange, or null if it couldn't be created
+     * @implNote Needs the rabbitmq_consistent_hash_exchange plugin enabled on the broker
+     */
+    private <T extends RabbitEvent> @Nullable String receiveSharded(@NotNull RabbitEventConfig<? super T> config,
+                                                                   @NotNull String bindingKey,
+                                                                   @NotNull Receiver<T> receiver) {
+        String shardExchange = config.exchangeName() + ".shards." + nodeId + "." + shardExchangeCounter.incrementAndGet();
+        List<Channel> created = new ArrayList<>();
+        try {
+            channel.exchangeDeclare(shardExchange, "x-consistent-hash", false, true, false,
+                    Map.of("hash-header", SHARD_KEY_HEADER));
+            bind(config, new Destination(shardExchange, true), bindingKey);
+
+            for (int shard = 0; shard < config.shards(); shard++) {
+                Channel shardChannel = channel.getConnection().createChannel();
+                created.add(shardChannel);
+                shardChannel.basicQos(prefetchCount);
+                String queue = shardChannel.queueDeclare("", false, true, true, null).getQueue();
+                // the binding key is the weight of the queue in the hash ring
+                shardChannel.queueBind(queue, shardExchange, "1");
+                deliver(shardChannel, ackBatcher(shardChannel), queue, config, receiver);
+            }
+            shardChannels.addAll(created);
+            return shardExchange;
+        } catch (IOException | ShutdownSignalException e) {
+            for (Channel shardChannel : created) {
+                try {
+                    shardChannel.close();
+                } catch (IOException | TimeoutException | ShutdownSignalException ignored) {
+                }
+            }
+            LOGGER.log(Level.SEVERE, "Exception occurred while creating " + config.shards() + " shard queues for " + config.exchangeName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Publishes the request with the direct reply-to queue as reply-to.
+     * The request isn't batched, spooled or delivered locally, it's always sent to RabbitMQ
+     * and expires there once the timeout passes.
+     */
+    @Override
+    public <Q extends RabbitEvent, R extends RabbitEvent> @NotNull CompletableFuture<R> request(@NotNull Q request,
+                                                                                               @NotNull RabbitEventConfig<Q> requestConfig,
+                                                                                               @NotNull RabbitEventConfig<R> replyConfig,
+                                                                                               long timeoutMillis) {
+        if (!declareExchange(requestConfig)) {
+            return CompletableFuture.failedFuture(new IOException("Exchange " + requestConfig.exchangeName() + " couldn't be declared"));
+        }
+        EventCodec<Q> codec = requestConfig.codec();
+        byte[] body;
+        try {
+            body = codec.encode(request);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        AMQP.BasicProperties properties = requestConfig.properties().builder()
+                .contentType(codec.contentType())
+                .expiration(String.valueOf(timeoutMillis))
+                .build();
+
+        return rpcClient.call(eventsExchangeName, routingKey(requestConfig, request), properties, body, timeoutMillis)
+                .thenApply(delivery -> {
+                    R reply = EventReader.read(replyConfig, delivery.getProperties().getContentType(), delivery.getBody());
+                    if (reply == null) {
+                        throw new IllegalStateException("Reply to " + request + " couldn't be decoded");
+                    }
+                    return reply;
+                });
+    }
+
+    /**
+     * Consumes the requests and publishes the replies to the requester's reply-to queue.
+     * The request is acknowledged once the reply future completes
+     */
+    @Override
+    public <Q extends RabbitEvent, R extends RabbitEvent> void respond(@NotNull RabbitEventConfig<Q> requestConfig,
+                                                                       @NotNull RabbitEventConfig<R> replyConfig,
+                                                                       @NotNull Function<Q, @Nullable CompletableFuture<R>> handler) {
+        if (!declareExchange(requestConfig)) return;
+        String queueName = declareQueue(requestConfig, requestConfig.exchangeRoutingKey());
+        if (queueName == null) return;
+
+        try {
+            channel.basicConsume(queueName, false, new TrackedConsumer(channel, requestConfig.exchangeName(), queueName) {
+                @Override
+                public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                    long deliveryTag = envelope.getDeliveryTag();
+
+                    String replyTo = properties.getReplyTo();
+                    Q request = replyTo == null ? null : EventReader.read(requestConfig, properties.getContentType(), body);
+                    if (request == null) {
+                        ackBatcher.completed(deliveryTag);
+                        return;
+                    }
+
+                    CompletableFuture<R> reply;
+                    try {
+                        reply = handler.apply(request);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.SEVERE, "Exception occurred while handling request " + request, e);
+                        ackBatcher.completed(deliveryTag);
+                        return;
+                    }
+                    if (reply == null) {
+                        ackBatcher.completed(deliveryTag);
+                        return;
+                    }
+                    reply.whenComplete((event, throwable) -> {
+                        if (throwable != null) {
+                            LOGGER.log(Level.SEVERE, "Exception occurred while handling request " + request, throwable);
+                        } else if (event != null) {
+                            reply(replyTo, properties.getCorrelationId(), event, replyConfig);
+                        }
+                        ackBatcher.completed(deliveryTag);
+                    });
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error occurred while trying to consume requests from Queue " + queueName, e);
+        }
+    }
+
+    private <R extends RabbitEvent> void reply(@NotNull String replyTo,
+                                               @Nullable String correlationId,
+                                               @NotNull R reply,
+                                               @NotNull RabbitEventConfig<R> replyConfig) {
+        EventCodec<R> codec = replyConfig.codec();
+        try {
+            AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                    .contentType(codec.contentType())
+                    .correlationId(correlationId)
+                    .build();
+            // replies are routed by the default exchange straight to the requester's channel
+            channel.basicPublish("", replyTo, properties, codec.encode(reply));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while sending reply " + reply, e);
+        }
+    }
+
+    /**
+     * Declarations are cached, so each exchange and binding is declared only once
+     *
+     * @return true if the exchange is declared
+     */
+    private <E extends RabbitEvent> boolean declareExchange(RabbitEventConfig<? super E> config) {
+        String bindingKey = key(config);
+        try {
+            if (declaredExchanges.add(eventsExchangeName)) {
+                channel.exchangeDeclare(eventsExchangeName, BuiltinExchangeType.TOPIC, false, false, false, null);
+            }
+            if (declaredExchanges.add(bindingKey)) {
+                channel.exchangeDeclare(config.exchangeName(), config.exchangeType(), false, true, true, null);
+                String exchangeBindingKey = config.presenceKey() == null ? config.exchangeRoutingKey() : config.exchangeRoutingKey() + ".*";
+                channel.exchangeBind(config.exchangeName(), eventsExchangeName, exchangeBindingKey);
+            }
+            return true;
+        } catch (IOException e) {
+            // so it can be tried again
+            declaredExchanges.remove(eventsExchangeName);
+            declaredExchanges.remove(bindingKey);
+            LOGGER.log(Level.SEVERE, "Exception occurred while creating exchange for " + config.exchangeName(), e);
+            return false;
+        }
+    }
+
+    private <E extends RabbitEvent> @Nullable String declareQueue(RabbitEventConfig<? super E> config, String bindingKey) {
+        String queue;
+        try {
+            queue = channel.queueDeclare("", false, true, true, null).getQueue();
+            bind(config, new Destination(queue, false), bindingKey);
+            return queue;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while creating consumer queue for " + config.exchangeName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Binds the queue or exchange to the config's exchange. Events with presence key have
+     * the player's UUID as the last word of the routing key, so the binding key either
+     * gets a wildcard for it, or with presence bindings one binding per player on this server
+     */
+    private void bind(@NotNull RabbitEventConfig<?> config, @NotNull Destination destination, @NotNull String bindingKey) throws IOException {
+        if (config.presenceKey() == null) {
+            destination.bind(channel, config.exchangeName(), bindingKey);
+        } else if (presence == null) {
+            destination.bind(channel, config.exchangeName(), bindingKey + ".*");
+        } else {
+            presence.add(destination, config.exchangeName(), bindingKey);
+        }
+    }
+
+    /**
+     * @return New ack batcher for the channel, flushed when the transport is closed
+     */
+    private AckBatcher ackBatcher(@NotNull Channel ackChannel) {
+        AckBatcher batcher = new AckBatcher(ackChannel, ackBatchSize, ackLingerMillis, ackScheduler);
+        ackBatchers.add(batcher);
+        return batcher;
+    }
+
+    /**
+     * @return Routing key to publish the event with, including the UUID of the player for events with presence key
+     */
+    private static <E extends RabbitEvent> @NotNull String routingKey(@NotNull RabbitEventConfig<E> config, @NotNull E event) {
+        Function<E, UUID> presenceKey = config.presenceKey();
+        return presenceKey == null ? config.routingKey(event) : config.routingKey(event) + "." + presenceKey.apply(event);
+    }
+
+    /**
+     * @param consumeChannel Channel to consume on
+     * @param ackBatcher Ack batcher of the channel
+     */
+    private <T extends RabbitEvent> void deliver(@NotNull Channel consumeChannel,
+                                                 @NotNull AckBatcher ackBatcher,
+                                                 @NotNull String queueName,
+                                                 @NotNull RabbitEventConfig<? super T> config,
+                                                 @NotNull Receiver<T> receiver) throws IOException {
+        consumeChannel.basicConsume(queueName, false, new TrackedConsumer(consumeChannel, config.exchangeName(), queueName) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                long deliveryTag = envelope.getDeliveryTag();
+
+                // already passed to the local receivers when it was published
+                if (localDelivery && isOwnMessage(properties)) {
+                    ackBatcher.completed(deliveryTag);
+                    return;
+                }
+
+                List<T> events = readAll(config, properties, body);
+                if (events.isEmpty()) {
+                    // the message can't ever be read, so it's acknowledged to not be redelivered
+                    ackBatcher.completed(deliveryTag);
+                    return;
+                }
+
+                // the message is acknowledged once all the events from it are processed
+                AtomicInteger remaining = new AtomicInteger(events.size());
+                long publishedMillis = publishedMillis(properties);
+                for (T event : events) {
+                    receiver.receive(event, publishedMillis, () -> {
+                        if (remaining.decrementAndGet() == 0) {
+                            ackBatcher.completed(deliveryTag);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads all the events from the message, unpacking it first if it's a batch.
+     * Events which can't be decoded are skipped
+     */
+    private <T extends RabbitEvent> @NotNull List<T> readAll(@NotNull RabbitEventConfig<? super T> config,
+                                                            @NotNull AMQP.BasicProperties properties,
+                                                            byte[] body) {
+        String contentType = properties.getContentType();
+        if (!PublishBatcher.CONTENT_TYPE.equals(contentType)) {
+            T event = EventReader.read(config, contentType, body);
+            return event == null ? List.of() : List.of(event);
+        }
+
+        List<byte[]> bodies;
+        try {
+            bodies = PublishBatcher.unpack(body);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while unpacking batch message from exchange " + config.exchangeName(), e);
+            return List.of();
+        }
+        String innerContentType = PublishBatcher.innerContentType(properties);
+        List<T> events = new ArrayList<>(bodies.size());
+        for (byte[] eventBody : bodies) {
+            T event = EventReader.read(config, innerContentType, eventBody);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Adds the content type of the codec, the origin node, the publish time and for sharded events
+     * also the shard key to the config properties
+     */
+    private <E extends RabbitEvent> AMQP.BasicProperties properties(@NotNull RabbitEventConfig<E> config,
+                                                                    @NotNull EventCodec<E> codec,
+                                                                    @NotNull E event) {
+        AMQP.BasicProperties properties = config.properties();
+        Map<String, Object> headers = new HashMap<>();
+        if (properties.getHeaders() != null) {
+            headers.putAll(properties.getHeaders());
+        }
+        headers.put(ORIGIN_NODE_HEADER, nodeId.toString());
+        headers.put(PUBLISHED_AT_HEADER, System.currentTimeMillis());
+        Function<E, UUID> orderingKey = config.orderingKey();
+        if (config.shards() > 1 && orderingKey != null) {
+            UUID key = orderingKey.apply(event);
+            headers.put(SHARD_KEY_HEADER, String.valueOf(Math.floorMod(key.hashCode(), SHARD_BUCKETS)));
+        }
+        return properties.builder()
+                .contentType(codec.contentType())
+                .headers(headers)
+                .build();
+    }
+
+    /**
+     * @return Time the message was published at, or 0 if it doesn't have the header
+     * (e.g. published by an older version). For batches, it's the time of the first event
+     */
+    private static long publishedMillis(@NotNull AMQP.BasicProperties properties) {
+        Map<String, Object> headers = properties.getHeaders();
+        return headers != null && headers.get(PUBLISHED_AT_HEADER) instanceof Number publishedAt ? publishedAt.longValue() : 0;
+    }
+
+    /**
+     * @return true if the message was published by this transport
+     */
+    private boolean isOwnMessage(@NotNull AMQP.BasicProperties properties) {
+        Map<String, Object> headers = properties.getHeaders();
+        if (headers == null) return false;
+        Object originNode = headers.get(ORIGIN_NODE_HEADER);
+        // header values are received as LongString
+        return originNode != null && nodeId.toString().equals(originNode.toString());
+    }
+
+    private static String key(RabbitEventConfig<?> config) {
+        return config.exchangeName() + '\0' + config.exchangeRoutingKey();
+    }
+
+    /**
+     * Consumer whose queue is reported by {@link #backlog()} while the consumer is active
+     */
+    private abstract class TrackedConsumer extends DefaultConsumer {
+        private final String key;
+        private final String queueName;
+
+        TrackedConsumer(@NotNull Channel channel, @NotNull String exchangeName, @NotNull String queueName) {
+            super(channel);
+            this.key = exchangeName + "/" + queueName;
+            this.queueName = queueName;
+        }
+
+        @Override
+        public void handleConsumeOk(String consumerTag) {
+            super.handleConsumeOk(consumerTag);
+            consumedQueues.put(key, queueName);
+        }
+
+        @Override
+        public void handleCancel(String consumerTag) {
+            consumedQueues.remove(key, queueName);
+        }
+
+        @Override
+        public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+            consumedQueues.remove(key, queueName);
+        }
+
+        @Override
+        public void handleRecoverOk(String consumerTag) {
+            consumedQueues.put(key, queueName);
+        }
+    }
+
+    /**
+     * Queue or shard exchange of a receiver, which gets the bindings to the config's exchange
+     */
+    record Destination(String name, boolean exchange) {
+
+        void bind(@NotNull Channel channel, @NotNull String source, @NotNull String bindingKey) throws IOException {
+            if (exchange) {
+                channel.exchangeBind(name, source, bindingKey);
+            } else {
+                channel.queueBind(name, source, bindingKey);
+            }
+        }
+    }
+}
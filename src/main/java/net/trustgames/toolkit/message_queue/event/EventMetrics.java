@@ -0,0 +1,63 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import net.trustgames.toolkit.metrics.LatencyHistogram;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latencies of the events received by {@link RabbitEventManager}, per event type, in microseconds.
+ * The publish time is stamped by the publishing server, so the delivery latency
+ * between servers includes the difference of their clocks.
+ *
+ * @see RabbitEventManager#metrics()
+ */
+public final class EventMetrics {
+    private final Map<Class<?>, EventTypeMetrics> eventTypes = new ConcurrentHashMap<>();
+    private final EventTransport transport;
+
+    EventMetrics(@NotNull EventTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return Metrics of all the event types received so far
+     */
+    public @NotNull Map<Class<?>, EventTypeMetrics> eventTypes() {
+        return Map.copyOf(eventTypes);
+    }
+
+    /**
+     * @param type Event type
+     * @return Metrics of the event type, or null if no such event was received yet
+     */
+    public @Nullable EventTypeMetrics eventType(@NotNull Class<?> type) {
+        return eventTypes.get(type);
+    }
+
+    /**
+     * Asks the transport for the number of events waiting to be delivered to this server.
+     * With RabbitMQ, it's one request to the broker per queue, so it shouldn't be called often
+     *
+     * @return Number of waiting events per queue
+     */
+    public @NotNull Map<String, Long> backlog() {
+        return transport.backlog();
+    }
+
+    @NotNull EventTypeMetrics forType(@NotNull Class<?> type) {
+        // get first, as computeIfAbsent locks the bin even if the value is present
+        EventTypeMetrics metrics = eventTypes.get(type);
+        return metrics != null ? metrics : eventTypes.computeIfAbsent(type, key -> new EventTypeMetrics(new LatencyHistogram(), new LatencyHistogram()));
+    }
+
+    /**
+     * @param deliveryLatency Time from the publish until the event was received by this server
+     * @param processingLatency Time from the receipt until all the subscribers finished,
+     *                          including the wait for the dispatch executor
+     */
+    public record EventTypeMetrics(@NotNull LatencyHistogram deliveryLatency, @NotNull LatencyHistogram processingLatency) {
+    }
+}
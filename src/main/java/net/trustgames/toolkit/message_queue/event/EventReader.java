@@ -0,0 +1,47 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import net.trustgames.toolkit.message_queue.event.codec.EventCodec;
+import net.trustgames.toolkit.message_queue.event.codec.JsonEventCodec;
+import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Decodes the events received by the transports which send them as bytes
+ */
+final class EventReader {
+
+    private EventReader() {
+    }
+
+    /**
+     * Decodes the message body by its content type. If the content type doesn't
+     * match the config's codec, the body is read as JSON (e.g. sent by older version)
+     *
+     * @return Decoded event or null if the body couldn't be decoded
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends RabbitEvent> @Nullable T read(@NotNull RabbitEventConfig<? super T> config,
+                                                    @Nullable String contentType,
+                                                    byte[] body) {
+        try {
+            EventCodec<? super T> codec = config.codec();
+            if (codec.contentType().equals(contentType)) {
+                return (T) codec.decode(body);
+            }
+            if (contentType == null || contentType.equals(JsonEventCodec.CONTENT_TYPE)) {
+                return (T) config.fromJson().apply(new JSONObject(new String(body, StandardCharsets.UTF_8)));
+            }
+            throw new IllegalArgumentException("Unsupported content type " + contentType);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while reading message from exchange " + config.exchangeName(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ShutdownSignalException;
+import net.trustgames.toolkit.message_queue.event.codec.BinaryReader;
+import net.trustgames.toolkit.message_queue.event.codec.BinaryWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Bounded append-only spool of messages which couldn't be published, kept in a memory-mapped file.
+ * The file starts with a header (magic, head and tail offset), followed by the length-prefixed records.
+ * Records are replayed from the head in the order they were added. As the offsets are
+ * stored in the file, the messages not yet replayed survive the restart.
+ */
+final class EventSpool {
+    private static final int MAGIC = 0x54475350; // "TGSP"
+    private static final int HEAD_OFFSET = 4;
+    private static final int TAIL_OFFSET = 8;
+    private static final int HEADER_SIZE = 12;
+
+    private final Path file;
+    private final int capacity;
+    private final SpoolSyncPolicy syncPolicy;
+    private final SpoolOverflowPolicy overflowPolicy;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer buffer;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean replayScheduled = new AtomicBoolean();
+    private final Publisher publisher;
+    private int head;
+    private int tail;
+    private boolean dirty;
+
+    EventSpool(@NotNull Path file,
+               int capacity,
+               @NotNull SpoolSyncPolicy syncPolicy,
+               @NotNull SpoolOverflowPolicy overflowPolicy,
+               @NotNull Publisher publisher) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.syncPolicy = syncPolicy;
+        this.overflowPolicy = overflowPolicy;
+        this.publisher = publisher;
+        this.fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        if (buffer.getInt(0) == MAGIC
+                && buffer.getInt(HEAD_OFFSET) >= HEADER_SIZE
+                && buffer.getInt(HEAD_OFFSET) <= buffer.getInt(TAIL_OFFSET)
+                && buffer.getInt(TAIL_OFFSET) <= capacity) {
+            this.head = buffer.getInt(HEAD_OFFSET);
+            this.tail = buffer.getInt(TAIL_OFFSET);
+            if (head != tail) {
+                LOGGER.info("Event spool " + file + " contains " + (tail - head) + " bytes of events from the previous run, these will be replayed");
+            }
+        } else {
+            this.head = HEADER_SIZE;
+            this.tail = HEADER_SIZE;
+            buffer.putInt(0, MAGIC);
+            writeOffsets();
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TG-Toolkit event spool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // in case the connection recovery isn't reported, try to replay from time to time
+        scheduler.scheduleWithFixedDelay(this::replay, 5, 5, TimeUnit.SECONDS);
+        if (syncPolicy == SpoolSyncPolicy.PERIODIC) {
+            scheduler.scheduleWithFixedDelay(this::sync, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Adds the message to the end of the spool
+     *
+     * @return false if the message was dropped, because the spool is full
+     */
+    synchronized boolean append(@NotNull String routingKey, @NotNull AMQP.BasicProperties properties, byte @NotNull [] body) {
+        byte[] record = encode(routingKey, properties, body);
+        int recordSize = 4 + record.length;
+        if (recordSize > capacity - HEADER_SIZE) {
+            LOGGER.warning("Event with routing key " + routingKey + " is too big for the event spool " + file + ", dropping it");
+            return false;
+        }
+
+        if (tail + recordSize > capacity) {
+            compact();
+        }
+        if (tail + recordSize > capacity) {
+            if (overflowPolicy == SpoolOverflowPolicy.DROP_NEWEST) {
+                LOGGER.warning("Event spool " + file + " is full, dropping event with routing key " + routingKey);
+                return false;
+            }
+            int dropped = 0;
+            // the space of the dropped records is freed by the compaction below
+            while (tail + recordSize > capacity + (head - HEADER_SIZE) && head < tail) {
+                head += 4 + buffer.getInt(head);
+                dropped++;
+            }
+            LOGGER.warning("Event spool " + file + " is full, dropped " + dropped + " oldest events");
+            compact();
+        }
+
+        buffer.putInt(tail, record.length);
+        buffer.put(tail + 4, record);
+        tail += recordSize;
+        writeOffsets();
+        if (syncPolicy == SpoolSyncPolicy.EVERY_RECORD) {
+            buffer.force();
+        } else {
+            dirty = true;
+        }
+        return true;
+    }
+
+    /**
+     * Schedules the spooled messages to be published, unless it's already scheduled
+     */
+    void replay() {
+        if (!replayScheduled.compareAndSet(false, true)) return;
+        try {
+            scheduler.execute(() -> {
+                replayScheduled.set(false);
+                drain();
+            });
+        } catch (RejectedExecutionException e) {
+            replayScheduled.set(false);
+        }
+    }
+
+    /**
+     * Publishes the spooled messages in order until the spool is empty or the publishing fails
+     * because of the connection (the channel is closed or the connection is blocked).
+     * Messages which can't be decoded or are refused for other reasons are skipped, so one bad record
+     * doesn't block the rest. The lock is held for one message at a time, so new messages can be appended in between.
+     */
+    private void drain() {
+        int replayed = 0;
+        while (true) {
+            synchronized (this) {
+                if (head == tail) break;
+                int length = buffer.getInt(head);
+                if (length < 0 || length > tail - head - 4) {
+                    LOGGER.severe("Event spool " + file + " is corrupted at offset " + head + " (record length " + length
+                            + "), dropping the remaining " + (tail - head) + " bytes");
+                    head = tail;
+                    advance(0);
+                    break;
+                }
+                byte[] record = new byte[length];
+                buffer.get(head + 4, record);
+                SpooledMessage message = null;
+                try {
+                    message = decode(record);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Exception occurred while decoding the event at offset " + head
+                            + " of the event spool " + file + ", skipping it", e);
+                }
+                if (message != null) {
+                    try {
+                        publisher.publish(message.routingKey(), message.properties(), message.body());
+                        replayed++;
+                    } catch (IOException | ShutdownSignalException e) {
+                        LOGGER.log(Level.FINE, "Replaying of the event spool " + file + " stopped, will be retried", e);
+                        break;
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.SEVERE, "Exception occurred while replaying the event with routing key "
+                                + message.routingKey() + " from the event spool " + file + ", skipping it", e);
+                    }
+                }
+                advance(4 + length);
+            }
+        }
+        if (replayed > 0) {
+            LOGGER.info("Replayed " + replayed + " events from the event spool " + file);
+        }
+    }
+
+    /**
+     * Moves the head past the replayed (or skipped) record
+     */
+    private void advance(int recordSize) {
+        head += recordSize;
+        if (head == tail) {
+            // start from the beginning again, so the space doesn't need to be compacted
+            head = HEADER_SIZE;
+            tail = HEADER_SIZE;
+        }
+        writeOffsets();
+        dirty = true;
+    }
+
+    /**
+     * Stops the scheduled tasks and releases the file. Events not yet replayed stay in the file
+     */
+    synchronized void close() {
+        scheduler.shutdownNow();
+        buffer.force();
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while closing the event spool " + file, e);
+        }
+    }
+
+    private synchronized void sync() {
+        if (dirty) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Moves the records not yet replayed to the beginning of the spool
+     */
+    private void compact() {
+        if (head == HEADER_SIZE) return;
+        int length = tail - head;
+        byte[] remaining = new byte[length];
+        buffer.get(head, remaining);
+        buffer.put(HEADER_SIZE, remaining);
+        head = HEADER_SIZE;
+        tail = HEADER_SIZE + length;
+        writeOffsets();
+    }
+
+    private void writeOffsets() {
+        buffer.putInt(HEAD_OFFSET, head);
+        buffer.putInt(TAIL_OFFSET, tail);
+    }
+
+    private static byte[] encode(String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        BinaryWriter writer = BinaryWriter.withCapacity(body.length + 128);
+        writer.writeString(routingKey);
+        writeNullableString(writer, properties.getContentType());
+        writeNullableString(writer, properties.getExpiration());
+        writer.writeVarInt(properties.getDeliveryMode() == null ? 0 : properties.getDeliveryMode());
+
+        Map<String, Object> headers = properties.getHeaders();
+        writer.writeVarInt(headers == null ? 0 : headers.size());
+        if (headers != null) {
+            for (Map.Entry<String, Object> header : headers.entrySet()) {
+                writer.writeString(header.getKey());
+                if (header.getValue() instanceof Number number) {
+                    writer.writeBoolean(true);
+                    writer.writeLong(number.longValue());
+                } else {
+                    // other types are sent as strings (LongString is received as well)
+                    writer.writeBoolean(false);
+                    writer.writeString(String.valueOf(header.getValue()));
+                }
+            }
+        }
+        writer.writeBytes(body);
+        return writer.toByteArray();
+    }
+
+    private static SpooledMessage decode(byte[] record) {
+        BinaryReader reader = BinaryReader.of(record);
+        String routingKey = reader.readString();
+        AMQP.BasicProperties.Builder properties = new AMQP.BasicProperties.Builder()
+                .contentType(readNullableString(reader))
+                .expiration(readNullableString(reader));
+        int deliveryMode = reader.readVarInt();
+        if (deliveryMode != 0) {
+            properties.deliveryMode(deliveryMode);
+        }
+
+        int headerCount = reader.readVarInt();
+        if (headerCount > 0) {
+            Map<String, Object> headers = new HashMap<>();
+            for (int i = 0; i < headerCount; i++) {
+                String key = reader.readString();
+                headers.put(key, reader.readBoolean() ? reader.readLong() : reader.readString());
+            }
+            properties.headers(headers);
+        }
+        return new SpooledMessage(routingKey, properties.build(), reader.readBytes());
+    }
+
+    private static void writeNullableString(BinaryWriter writer, @Nullable String value) {
+        writer.writeBoolean(value != null);
+        if (value != null) {
+            writer.writeString(value);
+        }
+    }
+
+    private static @Nullable String readNullableString(BinaryReader reader) {
+        return reader.readBoolean() ? reader.readString() : null;
+    }
+
+    private record SpooledMessage(String routingKey, AMQP.BasicProperties properties, byte[] body) {
+    }
+
+    @FunctionalInterface
+    interface Publisher {
+        void publish(@NotNull String routingKey, @NotNull AMQP.BasicProperties properties, byte @NotNull [] body) throws IOException;
+    }
+}
@@ -0,0 +1,116 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Moves the events between the publishers and the event buses for {@link RabbitEventManager}.
+ * The manager keeps track of the event buses and posts the received events to them,
+ * the transport only decides how the events get from {@link #send} to the receivers.
+ * Configs are identified by their exchange name and routing key, as they are usually created again for every use.
+ * Events are published with {@link RabbitEventConfig#routingKey(RabbitEvent)}.
+ *
+ * @see RabbitEventManagerBuilder#RabbitEventManagerBuilder(EventTransport)
+ * @see LoopbackTransport
+ */
+public interface EventTransport {
+
+    /**
+     * @param event Event instance
+     * @param config Event config
+     * @param <E> Event type
+     */
+    <E extends RabbitEvent> void send(@NotNull E event, @NotNull RabbitEventConfig<E> config);
+
+    /**
+     * Starts passing the config's events to the receiver.
+     * Transports which can't filter the events by the binding key pass all of them,
+     * the event bus filters them again anyway.
+     *
+     * @param config Event config
+     * @param bindingKey Topic pattern of the routing keys the receiver needs,
+     *                   {@link RabbitEventConfig#exchangeRoutingKey()} for all the events
+     * @param receiver Gets the events
+     * @param <T> Event type
+     * @return false if the events can't be received (e.g. the queue couldn't be created)
+     */
+    <T extends RabbitEvent> boolean receive(@NotNull RabbitEventConfig<? super T> config,
+                                            @NotNull String bindingKey,
+                                            @NotNull Receiver<T> receiver);
+
+    /**
+     * Passes also the events matching the binding key to the receiver
+     * already started by {@link #receive(RabbitEventConfig, String, Receiver)}
+     *
+     * @return false if the binding couldn't be created
+     */
+    default boolean bind(@NotNull RabbitEventConfig<?> config, @NotNull Receiver<?> receiver, @NotNull String bindingKey) {
+        return true;
+    }
+
+    /**
+     * @param timeoutMillis Time after which the future completes with {@link java.util.concurrent.TimeoutException}
+     * @return Future completed with the first reply
+     * @see RabbitEventManager#request(RabbitEvent, RabbitEventConfig, RabbitEventConfig, long)
+     */
+    <Q extends RabbitEvent, R extends RabbitEvent> @NotNull CompletableFuture<R> request(@NotNull Q request,
+                                                                                       @NotNull RabbitEventConfig<Q> requestConfig,
+                                                                                       @NotNull RabbitEventConfig<R> replyConfig,
+                                                                                       long timeoutMillis);
+
+    /**
+     * @param handler Returns the future reply to the request, or null (or future of null) to not reply
+     * @see RabbitEventManager#respond(RabbitEventConfig, RabbitEventConfig, Function)
+     */
+    <Q extends RabbitEvent, R extends RabbitEvent> void respond(@NotNull RabbitEventConfig<Q> requestConfig,
+                                                                @NotNull RabbitEventConfig<R> replyConfig,
+                                                                @NotNull Function<Q, @Nullable CompletableFuture<R>> handler);
+
+    /**
+     * Called when a player joins or leaves this server, so the transport can
+     * receive only the events of the players who are here
+     *
+     * @param player UUID of the player
+     * @param present Whether the player is on this server now
+     * @see net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig#presenceKey()
+     */
+    default void presenceChanged(@NotNull UUID player, boolean present) {
+    }
+
+    /**
+     * @return Number of events waiting to be received per queue (or other unit of the transport)
+     * @see EventMetrics#backlog()
+     */
+    default @NotNull Map<String, Long> backlog() {
+        return Map.of();
+    }
+
+    /**
+     * Sends the events the transport holds back (e.g. for batching) right away
+     */
+    default void flush() {
+    }
+
+    /**
+     * Sends the remaining events and releases the resources of the transport
+     */
+    default void close() {
+    }
+
+    @FunctionalInterface
+    interface Receiver<T extends RabbitEvent> {
+
+        /**
+         * @param event Received event
+         * @param publishedMillis Time the event was published at in epoch millis, or 0 if unknown
+         * @param onDone Needs to be called once the event is processed
+         */
+        void receive(@NotNull T event, long publishedMillis, @NotNull Runnable onDone);
+    }
+}
@@ -1,56 +0,0 @@
-package net.trustgames.toolkit.message_queue.event;
-
-import org.jetbrains.annotations.NotNull;
-
-import java.util.ArrayList;
-import java.util.List;
-
-final class Internals {
-    private Internals() {
-    }
-
-    // https://github.com/Kaoaki/ksl/blob/master/src/main/java/net/kaoaki/ksl/reflection/Types.java
-    /*
-     * This file is part of ksl, licensed under the MIT License.
-     *
-     * Copyright (c) 2021 KyoriPowered
-     *
-     * Permission is hereby granted, free of charge, to any person obtaining a copy
-     * of this software and associated documentation files (the "Software"), to deal
-     * in the Software without restriction, including without limitation the rights
-     * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
-     * copies of the Software, and to permit persons to whom the Software is
-     * furnished to do so, subject to the following conditions:
-     *
-     * The above copyright notice and this permission notice shall be included in all
-     * copies or substantial portions of the Software.
-     *
-     * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
-     * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
-     * FITNESS FOR A PARTICULAR PURPOSE AND NON INFRINGEMENT. IN NO EVENT SHALL THE
-     * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
-     * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
-     * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
-     * SOFTWARE.
-     */
-    @SuppressWarnings("unchecked")
-    static <T> @NotNull List<Class<? super T>> ancestors(final @NotNull Class<T> type) {
-        final List<Class<? super T>> types = new ArrayList<>();
-        types.add(type);
-        for(int i = 0; i < types.size(); i++) {
-            final Class<?> next = types.get(i);
-            final Class<?> superclass = next.getSuperclass();
-            if(superclass != null) {
-                types.add((Class<? super T>) superclass);
-            }
-            final Class<?>[] interfaces = next.getInterfaces();
-            for(final Class<?> iface : interfaces) {
-                // we have a list because we want to preserve order, but we don't want duplicates
-                if(!types.contains(iface)) {
-                    types.add((Class<? super T>) iface);
-                }
-            }
-        }
-        return types;
-    }
-}
@@ -0,0 +1,146 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Passes the events to the receivers in the same JVM, without a broker and without
+ * converting them to bytes (the receivers get the same instance which was sent).
+ * Can be shared by multiple managers to simulate multiple servers.
+ * <p>
+ * Sent events are added to a lock-free queue and drained by one thread at a time,
+ * so events sent from a subscriber are passed on after the current one
+ * (like they would be with a broker) instead of recursively, and the order is kept.
+ * By default, the sending thread drains the queue.
+ */
+public final class LoopbackTransport implements EventTransport {
+    private final Executor executor;
+    private final Map<String, CopyOnWriteArrayList<Receiver<?>>> receivers = new ConcurrentHashMap<>();
+    private final Map<String, CopyOnWriteArrayList<Function<?, CompletableFuture<?>>>> responders = new ConcurrentHashMap<>();
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * Creates the transport which passes the events on the sending thread
+     */
+    public LoopbackTransport() {
+        this(Runnable::run);
+    }
+
+    /**
+     * @param executor Executor to pass the events to the receivers on
+     */
+    public LoopbackTransport(@NotNull Executor executor) {
+        this.executor = executor;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends RabbitEvent> void send(@NotNull E event, @NotNull RabbitEventConfig<E> config) {
+        List<Receiver<?>> configReceivers = receivers.get(key(config));
+        if (configReceivers == null) return;
+        long publishedMillis = System.currentTimeMillis();
+        for (Receiver<?> receiver : configReceivers) {
+            queue.add(() -> ((Receiver<? super E>) receiver).receive(event, publishedMillis, () -> {}));
+        }
+        drain();
+    }
+
+    @Override
+    public <T extends RabbitEvent> boolean receive(@NotNull RabbitEventConfig<? super T> config,
+                                                   @NotNull String bindingKey,
+                                                   @NotNull Receiver<T> receiver) {
+        receivers.computeIfAbsent(key(config), key -> new CopyOnWriteArrayList<>()).add(receiver);
+        return true;
+    }
+
+    /**
+     * Asks all the responders of the config in order and completes the future with the first reply
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <Q extends RabbitEvent, R extends RabbitEvent> @NotNull CompletableFuture<R> request(@NotNull Q request,
+                                                                                               @NotNull RabbitEventConfig<Q> requestConfig,
+                                                                                               @NotNull RabbitEventConfig<R> replyConfig,
+                                                                                               long timeoutMillis) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        List<Function<?, CompletableFuture<?>>> configResponders = responders.get(key(requestConfig));
+        if (configResponders == null) return future;
+
+        for (Function<?, CompletableFuture<?>> responder : configResponders) {
+            queue.add(() -> {
+                if (future.isDone()) return;
+                CompletableFuture<R> reply = (CompletableFuture<R>) ((Function<Q, CompletableFuture<?>>) responder).apply(request);
+                if (reply == null) return;
+                reply.whenComplete((event, throwable) -> {
+                    if (throwable != null) {
+                        LOGGER.log(Level.SEVERE, "Exception occurred while handling request " + request, throwable);
+                    } else if (event != null) {
+                        future.complete(event);
+                    }
+                });
+            });
+        }
+        drain();
+        return future;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override
+    public <Q extends RabbitEvent, R extends RabbitEvent> void respond(@NotNull RabbitEventConfig<Q> requestConfig,
+                                                                       @NotNull RabbitEventConfig<R> replyConfig,
+                                                                       @NotNull Function<Q, @Nullable CompletableFuture<R>> handler) {
+        responders.computeIfAbsent(key(requestConfig), key -> new CopyOnWriteArrayList<>()).add((Function) handler);
+    }
+
+    /**
+     * @return Number of events and requests queued to be passed on
+     */
+    @Override
+    public @NotNull Map<String, Long> backlog() {
+        return Map.of("loopback", (long) queue.size());
+    }
+
+    /**
+     * Runs the queued tasks, unless another thread already does
+     */
+    private void drain() {
+        if (!draining.compareAndSet(false, true)) return;
+        try {
+            executor.execute(this::runQueued);
+        } catch (RejectedExecutionException e) {
+            runQueued();
+        }
+    }
+
+    private void runQueued() {
+        do {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "Exception occurred while passing event in loopback transport", e);
+                }
+            }
+            draining.set(false);
+            // a task could have been added after the last poll, but before the flag was cleared
+        } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    private static String key(RabbitEventConfig<?> config) {
+        return config.exchangeName() + '\0' + config.exchangeRoutingKey();
+    }
+}
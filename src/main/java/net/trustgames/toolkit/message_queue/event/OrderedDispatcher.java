@@ -0,0 +1,130 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Runs the event dispatch tasks on the given {@link Executor}, while keeping
+ * the tasks with the same key in order. Each key is assigned to one of the lanes
+ * and each lane runs its tasks one after another, so tasks for different keys
+ * can run in parallel, but tasks for the same key (e.g. the same player UUID) never do.
+ * Asynchronous tasks hold their lane until the returned stage completes, without blocking the thread.
+ */
+final class OrderedDispatcher {
+    private static final CompletionStage<?> DONE = CompletableFuture.completedFuture(null);
+
+    private final Executor executor;
+    private final Lane[] lanes;
+
+    OrderedDispatcher(@NotNull Executor executor, int lanes) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("Dispatcher needs at least one lane, got " + lanes);
+        }
+        this.executor = executor;
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * @param key Key to keep the order by. Tasks without a key
+     *            are spread over the lanes by their own hash
+     * @param task Task to run
+     */
+    void execute(@Nullable Object key, @NotNull Runnable task) {
+        lane(key, task).submit(() -> {
+            task.run();
+            return DONE;
+        });
+    }
+
+    /**
+     * @param key Key to keep the order by. Tasks without a key
+     *            are spread over the lanes by their own hash
+     * @param task Task to run, the next task of the lane runs once the returned stage completes
+     */
+    void executeAsync(@Nullable Object key, @NotNull Supplier<? extends CompletionStage<?>> task) {
+        lane(key, task).submit(task);
+    }
+
+    private Lane lane(@Nullable Object key, @NotNull Object task) {
+        int hash = (key == null ? task : key).hashCode();
+        // spread the bits, so keys differing only in high bits don't end up in the same lane
+        hash ^= (hash >>> 16);
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+
+    private static void logFailure(@Nullable Throwable throwable) {
+        if (throwable != null) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while dispatching event", throwable);
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final Queue<Supplier<? extends CompletionStage<?>>> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void submit(Supplier<? extends CompletionStage<?>> task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) return;
+            resume();
+        }
+
+        /**
+         * Continues running the tasks, the lane is already marked as scheduled
+         */
+        private void resume() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.WARNING, "Event dispatch executor rejected the task, running it on the calling thread", e);
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            Supplier<? extends CompletionStage<?>> task;
+            while ((task = tasks.poll()) != null) {
+                CompletableFuture<?> future;
+                try {
+                    future = task.get().toCompletableFuture();
+                } catch (Throwable t) {
+                    LOGGER.log(Level.SEVERE, "Exception occurred while dispatching event", t);
+                    continue;
+                }
+                if (!future.isDone()) {
+                    // the lane stays scheduled, so no other thread runs its tasks until this one completes
+                    future.whenComplete((result, throwable) -> {
+                        logFailure(throwable);
+                        resume();
+                    });
+                    return;
+                }
+                future.whenComplete((result, throwable) -> logFailure(throwable));
+            }
+            scheduled.set(false);
+            // a task could have been added after the last poll, but before the flag was reset
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
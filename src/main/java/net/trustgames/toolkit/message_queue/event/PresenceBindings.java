@@ -0,0 +1,144 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Keeps one binding per player on this server for every receiver of the events with presence key,
+ * so the broker only sends the events of the players who are here.
+ * Joins and leaves are collected for the linger time and applied together, a player who joins
+ * and leaves within it doesn't cause any binding change. The bindings are created without waiting
+ * for the broker to confirm each of them, so a whole batch takes about one round trip.
+ * If the broker call fails, the change and all the changes after it are kept and applied again later.
+ */
+final class PresenceBindings {
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    private final Channel channel;
+    private final long lingerMillis;
+    private final ScheduledExecutorService scheduler;
+    private final List<Template> templates = new ArrayList<>();
+    private final Set<UUID> present = new HashSet<>();
+    private final Map<UUID, Boolean> pending = new LinkedHashMap<>();
+    private boolean scheduled;
+
+    PresenceBindings(@NotNull Channel channel, long lingerMillis) {
+        this.channel = channel;
+        this.lingerMillis = lingerMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TG-Toolkit presence bindings");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Binds the destination for all the players on this server now and for the ones who join later
+     *
+     * @param destination Queue or exchange to bind
+     * @param source Exchange of the event config
+     * @param bindingKey Binding key, the player's UUID is added to it as another word
+     */
+    synchronized void add(@NotNull AmqpTransport.Destination destination, @NotNull String source, @NotNull String bindingKey) throws IOException {
+        Template template = new Template(destination, source, bindingKey);
+        for (UUID player : present) {
+            bind(template, player);
+        }
+        templates.add(template);
+    }
+
+    /**
+     * @param player UUID of the player who joined or left this server
+     * @param present Whether the player is on this server now
+     */
+    synchronized void update(@NotNull UUID player, boolean present) {
+        pending.put(player, present);
+        if (!scheduled) {
+            schedule(lingerMillis);
+        }
+    }
+
+    void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(long delayMillis) {
+        try {
+            scheduler.schedule(this::apply, delayMillis, TimeUnit.MILLISECONDS);
+            scheduled = true;
+        } catch (RejectedExecutionException ignored) {
+            // closed
+        }
+    }
+
+    /**
+     * Applies the pending changes in order. A player is marked as present (or not) only once
+     * all the bindings are changed. Binding again or removing a missing binding does nothing,
+     * so a change which failed halfway can be applied again
+     */
+    private synchronized void apply() {
+        scheduled = false;
+        Iterator<Map.Entry<UUID, Boolean>> changes = pending.entrySet().iterator();
+        try {
+            while (changes.hasNext()) {
+                Map.Entry<UUID, Boolean> change = changes.next();
+                UUID player = change.getKey();
+                boolean joined = change.getValue();
+                if (joined != present.contains(player)) {
+                    for (Template template : templates) {
+                        if (joined) {
+                            bind(template, player);
+                        } else {
+                            unbind(template, player);
+                        }
+                    }
+                    if (joined) {
+                        present.add(player);
+                    } else {
+                        present.remove(player);
+                    }
+                }
+                changes.remove();
+            }
+        } catch (IOException | ShutdownSignalException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while updating presence bindings, changes of "
+                    + pending.size() + " players will be retried", e);
+            if (!scheduled) {
+                schedule(Math.max(lingerMillis, RETRY_DELAY_MILLIS));
+            }
+        }
+    }
+
+    private void bind(Template template, UUID player) throws IOException {
+        String bindingKey = template.bindingKey() + "." + player;
+        if (template.destination().exchange()) {
+            channel.exchangeBindNoWait(template.destination().name(), template.source(), bindingKey, null);
+        } else {
+            channel.queueBindNoWait(template.destination().name(), template.source(), bindingKey, null);
+        }
+    }
+
+    private void unbind(Template template, UUID player) throws IOException {
+        String bindingKey = template.bindingKey() + "." + player;
+        if (template.destination().exchange()) {
+            channel.exchangeUnbindNoWait(template.destination().name(), template.source(), bindingKey, null);
+        } else {
+            // queue unbind can't be sent without waiting for the reply
+            channel.queueUnbind(template.destination().name(), template.source(), bindingKey);
+        }
+    }
+
+    private record Template(AmqpTransport.Destination destination, String source, String bindingKey) {
+    }
+}
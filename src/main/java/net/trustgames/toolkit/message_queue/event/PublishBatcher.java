@@ -0,0 +1,191 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.AMQP;
+import net.trustgames.toolkit.message_queue.event.codec.BinaryReader;
+import net.trustgames.toolkit.message_queue.event.codec.BinaryWriter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Collects the encoded events bound for the same routing key (and shard) and sends them as one batch message
+ * once there are enough of them, or the linger time has passed since the first one was added.
+ * The batch body is a varint count followed by the length-prefixed bodies of the events.
+ * Batches are removed once they are sent, so the routing keys which aren't used anymore don't stay around.
+ */
+final class PublishBatcher {
+    static final String CONTENT_TYPE = "application/x-tg-batch";
+    static final String INNER_CONTENT_TYPE_HEADER = "x-tg-content-type";
+
+    private final int maxMessages;
+    private final long lingerMillis;
+    private final Sender sender;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+
+    PublishBatcher(int maxMessages, long lingerMillis, @NotNull Sender sender) {
+        this.maxMessages = maxMessages;
+        this.lingerMillis = lingerMillis;
+        this.sender = sender;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TG-Toolkit event batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param routingKey Routing key to publish the event with
+     * @param properties Properties of the event, all events with the same routing key,
+     *                   content type and shard key are sent with the properties of the first one
+     * @param body Encoded event
+     */
+    void add(@NotNull String routingKey, @NotNull AMQP.BasicProperties properties, byte @NotNull [] body) {
+        // events for different shards can't share a batch, as the whole batch goes to one shard queue
+        Map<String, Object> headers = properties.getHeaders();
+        Object shardKey = headers == null ? null : headers.get(AmqpTransport.SHARD_KEY_HEADER);
+        String key = routingKey + '\0' + properties.getContentType() + '\0' + shardKey;
+        // the batch could have been sent and removed in the meantime, then the event goes to a new one
+        Batch batch;
+        do {
+            batch = batches.computeIfAbsent(key, k -> new Batch(k, routingKey, properties));
+        } while (!batch.add(body));
+    }
+
+    /**
+     * Sends all the collected events right away
+     */
+    void flush() {
+        for (Batch batch : batches.values()) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Sends all the collected events and stops the linger timer
+     */
+    void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * @param body Body of the batch message
+     * @return Bodies of the events in the batch
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    static @NotNull List<byte[]> unpack(byte @NotNull [] body) {
+        BinaryReader reader = BinaryReader.of(body);
+        int count = reader.readVarInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative batch size " + count);
+        }
+        List<byte[]> bodies = new ArrayList<>(Math.min(count, body.length));
+        for (int i = 0; i < count; i++) {
+            bodies.add(reader.readBytes());
+        }
+        return bodies;
+    }
+
+    /**
+     * @return Content type of the events in the batch message
+     */
+    static @Nullable String innerContentType(@NotNull AMQP.BasicProperties properties) {
+        Map<String, Object> headers = properties.getHeaders();
+        if (headers == null) return null;
+        Object contentType = headers.get(INNER_CONTENT_TYPE_HEADER);
+        return contentType == null ? null : contentType.toString();
+    }
+
+    @FunctionalInterface
+    interface Sender {
+        void send(@NotNull String routingKey, @NotNull AMQP.BasicProperties properties, byte @NotNull [] body);
+    }
+
+    private final class Batch {
+        private final String key;
+        private final String routingKey;
+        private final AMQP.BasicProperties properties;
+        private final AMQP.BasicProperties batchProperties;
+        private List<byte[]> bodies = new ArrayList<>();
+        private int bodiesLength;
+        private ScheduledFuture<?> lingerTask;
+        private boolean removed;
+
+        Batch(String key, String routingKey, AMQP.BasicProperties properties) {
+            this.key = key;
+            this.routingKey = routingKey;
+            this.properties = properties;
+            Map<String, Object> headers = new HashMap<>();
+            if (properties.getHeaders() != null) {
+                headers.putAll(properties.getHeaders());
+            }
+            headers.put(INNER_CONTENT_TYPE_HEADER, properties.getContentType());
+            this.batchProperties = properties.builder()
+                    .contentType(CONTENT_TYPE)
+                    .headers(headers)
+                    .build();
+        }
+
+        /**
+         * @return false if the batch was already sent and removed, so the event wasn't added
+         */
+        synchronized boolean add(byte[] body) {
+            if (removed) return false;
+            bodies.add(body);
+            bodiesLength += body.length;
+            if (bodies.size() >= maxMessages) {
+                flush();
+            } else if (lingerTask == null) {
+                try {
+                    lingerTask = scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // the batcher is closed, so there is no timer to send the batch later
+                    flush();
+                }
+            }
+            return true;
+        }
+
+        /*
+         sending is done while holding the lock, so two batches
+         for the same routing key can't overtake each other
+        */
+        synchronized void flush() {
+            if (lingerTask != null) {
+                lingerTask.cancel(false);
+                lingerTask = null;
+            }
+            if (bodies.isEmpty()) return;
+
+            List<byte[]> toSend = bodies;
+            int length = bodiesLength;
+            bodies = new ArrayList<>();
+            bodiesLength = 0;
+            try {
+                send(toSend, length);
+            } finally {
+                // removed only after sending, so the next batch for the key can't overtake this one
+                removed = true;
+                batches.remove(key, this);
+            }
+        }
+
+        private void send(List<byte[]> toSend, int length) {
+            // a single event doesn't need to be wrapped
+            if (toSend.size() == 1) {
+                sender.send(routingKey, properties, toSend.get(0));
+                return;
+            }
+
+            BinaryWriter writer = BinaryWriter.withCapacity(length + 5 * (toSend.size() + 1));
+            writer.writeVarInt(toSend.size());
+            for (byte[] body : toSend) {
+                writer.writeBytes(body);
+            }
+            sender.send(routingKey, batchProperties, writer.toByteArray());
+        }
+    }
+}
@@ -2,11 +2,15 @@ package net.trustgames.toolkit.message_queue.event;
 
 import net.trustgames.toolkit.event.EventBus;
 import net.trustgames.toolkit.event.EventSubscriber;
+import net.trustgames.toolkit.event.Internals;
 import net.trustgames.toolkit.event.PostResult;
 import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 
 /*
@@ -35,26 +39,33 @@ import java.util.function.Predicate;
 
 /**
  * Similar to normal {@link EventBus} however, when an event is sent with {@link RabbitEventBus},
- * rather than looping through the subscribers, the event data is converted to JSON and then published
+ * rather than looping through the subscribers, the event is encoded by the config's
+ * {@link net.trustgames.toolkit.message_queue.event.codec.EventCodec} and then published
  * as a message to RabbitMQ. From there the event can be received on multiple servers
  * (instances of toolkit and event buses)
  *
  * @param <E> Event type
  */
 public final class RabbitEventBus<E extends RabbitEvent> {
-    private static final Comparator<EventSubscriber<?>> COMPARATOR = Comparator.comparingInt(EventSubscriber::postOrder);
-    private final Map<Class<? extends E>, Collection<? extends Class<?>>> classes = new HashMap<>();
-    private final Map<Class<? extends E>, List<EventSubscriber<? super E>>> unbaked = new HashMap<>();
-    private final Map<Class<? extends E>, List<EventSubscriber<? super E>>> baked = new HashMap<>();
-    private final Object lock = new Object();
+    private final Internals.Subscribers<E> subscribers;
     private final Class<E> type;
-    private final EventBus.Accepts<E> accepts;
     private final RabbitEventManager rabbitEventManager;
+    private final @Nullable Executor asyncExecutor;
 
     public RabbitEventBus(final RabbitEventManager rabbitEventManager, final Class<E> type, final EventBus.Accepts<E> accepts) {
+        this(rabbitEventManager, type, accepts, null);
+    }
+
+    /**
+     * @param asyncExecutor If set, the subscribers with the same post order run in parallel
+     *                      on this executor, see {@link #postAsync(RabbitEvent)}
+     */
+    public RabbitEventBus(final RabbitEventManager rabbitEventManager, final Class<E> type, final EventBus.Accepts<E> accepts,
+                          final @Nullable Executor asyncExecutor) {
         this.type = type;
-        this.accepts = accepts;
+        this.subscribers = new Internals.Subscribers<>(type, (event, subscriber) -> accepts.accepts(type, event, subscriber));
         this.rabbitEventManager = rabbitEventManager;
+        this.asyncExecutor = asyncExecutor;
     }
 
     
@@ -62,85 +73,132 @@ public final class RabbitEventBus<E extends RabbitEvent> {
         return this.type;
     }
 
-    
-    @SuppressWarnings("unchecked")
+    /**
+     * The subscribers are looked up without locking and nothing is allocated unless a subscriber throws
+     */
     @NotNull PostResult post(@NotNull final E event) {
-        Map<EventSubscriber<?>, Throwable> exceptions = null; // save on an allocation
-        final List<EventSubscriber<? super E>> subscribers = this.subscribers((Class<? extends E>) event.getClass());
-        for(final EventSubscriber<? super E> subscriber : subscribers) {
-            if(this.accepts(event, subscriber)) {
-                try {
-                    subscriber.onEvent(event);
-                } catch(final Throwable t) {
-                    if(exceptions == null) {
-                        exceptions = new HashMap<>();
-                    }
-                    exceptions.put(subscriber, t);
-                }
-            }
-        }
-        if(exceptions == null) {
-            return PostResult.success();
-        } else {
-            return PostResult.failure(exceptions);
-        }
+        return this.subscribers.post(event);
     }
 
-    private boolean accepts(final E event, final EventSubscriber<? super E> subscriber) {
-        return this.accepts.accepts(this.type, event, subscriber);
+    /**
+     * Posts the event tier by tier (subscribers with the same post order), running the subscribers
+     * of one tier in parallel on the async executor. Without the executor, it's the same as {@link #post(RabbitEvent)}
+     */
+    @NotNull CompletableFuture<PostResult> postAsync(@NotNull final E event) {
+        if(this.asyncExecutor == null) {
+            return CompletableFuture.completedFuture(this.post(event));
+        }
+        return this.subscribers.postTiered(event, this.asyncExecutor);
     }
 
     
     public boolean subscribed(final @NotNull Class<? extends E> type) {
-        return !this.subscribers(type).isEmpty();
+        return this.subscribers.subscribed(type);
     }
 
-    @SuppressWarnings({"unchecked"})
-    public <T extends E> void subscribe(final @NotNull Class<T> event, RabbitEventConfig<? super T> config, final @NotNull EventSubscriber<? super T> subscriber) {
-        synchronized(this.lock) {
-            final List<EventSubscriber<? super T>> subscribers = yayGenerics(this.unbaked.computeIfAbsent(event, key -> new ArrayList<>()));
-            subscribers.add(subscriber);
-            rabbitEventManager.listen(this, config);
-            this.baked.clear();
-        }
+    /**
+     * Registers the subscriber. The queue and consumer for the config are
+     * created only for the first subscriber, the others share them
+     *
+     * @return false if the queue couldn't be created, the subscriber isn't registered then
+     */
+    public <T extends E> boolean subscribe(final @NotNull Class<T> event, RabbitEventConfig<? super T> config, final @NotNull EventSubscriber<? super T> subscriber) {
+        return this.subscribe(event, config, config.exchangeRoutingKey(), subscriber);
     }
 
-    public void unsubscribeIf(final @NotNull Predicate<EventSubscriber<? super E>> predicate) {
-        synchronized(this.lock) {
-            boolean dirty = false;
-            for(final List<EventSubscriber<? super E>> subscribers : this.unbaked.values()) {
-                dirty |= subscribers.removeIf(predicate);
-            }
-            if(dirty) {
-                this.baked.clear();
+    /**
+     * Registers the subscriber for the events whose {@link RabbitEventConfig#routingKey(RabbitEvent) routing key}
+     * matches the binding key. The binding key is added to the bindings of the shared queue,
+     * so with a TOPIC exchange the broker only sends the events some subscriber needs.
+     * The events brought in by the bindings of other subscribers are filtered out before they reach the subscriber.
+     *
+     * The queue is declared and bound outside the subscribers lock, so posting and other subscribing
+     * don't wait for the broker. If it fails, the subscriber is removed again.
+     *
+     * @param bindingKey Topic pattern, e.g. {@code player-data-update.level.#}
+     * @return false if the queue couldn't be created or bound, the subscriber isn't registered then
+     */
+    public <T extends E> boolean subscribe(final @NotNull Class<T> event, RabbitEventConfig<? super T> config, final @NotNull String bindingKey,
+                                           final @NotNull EventSubscriber<? super T> subscriber) {
+        // the exchange routing key matches all the events of the config, so there is nothing to filter
+        final EventSubscriber<? super T> routed = bindingKey.equals(config.exchangeRoutingKey())
+                ? subscriber
+                : new RoutedSubscriber<>(subscriber, config, bindingKey);
+        this.subscribers.modify(unbaked -> {
+            final List<EventSubscriber<? super T>> subscribers = yayGenerics(unbaked.computeIfAbsent(event, key -> new ArrayList<>()));
+            subscribers.add(routed);
+        });
+        boolean listening = false;
+        try {
+            listening = this.rabbitEventManager.listen(this, config, bindingKey);
+        } finally {
+            if(!listening) {
+                // the same subscriber could be registered before, so only the last one is removed
+                this.subscribers.modify(unbaked -> {
+                    final List<EventSubscriber<? super E>> subscribers = unbaked.get(event);
+                    // it could be unsubscribed meanwhile
+                    final int index = subscribers == null ? -1 : subscribers.lastIndexOf(routed);
+                    if(index == -1) return;
+                    subscribers.remove(index);
+                    if(subscribers.isEmpty()) {
+                        unbaked.remove(event);
+                    }
+                });
             }
         }
+        return listening;
     }
 
-    private List<EventSubscriber<? super E>> subscribers(final @NotNull Class<? extends E> event) {
-        synchronized(this.lock) {
-            return this.baked.computeIfAbsent(event, this::subscribers0);
-        }
-    }
-
-    private List<EventSubscriber<? super E>> subscribers0(final @NotNull Class<? extends E> event) {
-        final List<EventSubscriber<? super E>> subscribers = new ArrayList<>();
-        final Collection<? extends Class<?>> types = this.classes.computeIfAbsent(event, this::findClasses);
-        for(final Class<?> type : types) {
-            subscribers.addAll(this.unbaked.getOrDefault(type, Collections.emptyList()));
-        }
-        subscribers.sort(COMPARATOR);
-        return subscribers;
-    }
-
-    private Collection<? extends Class<?>> findClasses(final Class<?> type) {
-        final Collection<? extends Class<?>> classes = Internals.ancestors(type);
-        classes.removeIf(klass -> !this.type.isAssignableFrom(klass));
-        return classes;
+    /**
+     * The predicate is tested with the subscribers as they were passed to subscribe
+     */
+    @SuppressWarnings("unchecked")
+    public void unsubscribeIf(final @NotNull Predicate<EventSubscriber<? super E>> predicate) {
+        final Predicate<EventSubscriber<? super E>> unwrapped = subscriber -> predicate.test(subscriber instanceof RoutedSubscriber<?> routed
+                ? (EventSubscriber<? super E>) routed.subscriber
+                : subscriber);
+        this.subscribers.removeIf(unwrapped);
     }
 
     @SuppressWarnings("unchecked")
     private static <T extends U, U> List<U> yayGenerics(final List<T> list) {
         return (List<U>) list;
     }
-}
\ No newline at end of file
+
+    /**
+     * Passes only the events with routing key matching the binding key to the subscriber
+     */
+    private static final class RoutedSubscriber<T extends RabbitEvent> implements EventSubscriber<T> {
+        private final EventSubscriber<? super T> subscriber;
+        private final RabbitEventConfig<? super T> config;
+        private final String bindingKey;
+
+        private RoutedSubscriber(final EventSubscriber<? super T> subscriber, final RabbitEventConfig<? super T> config, final String bindingKey) {
+            this.subscriber = subscriber;
+            this.config = config;
+            this.bindingKey = bindingKey;
+        }
+
+        @Override
+        public void onEvent(final @NotNull T event) {
+            if(TopicPattern.matches(this.bindingKey, this.config.routingKey(event))) {
+                this.subscriber.onEvent(event);
+            }
+        }
+
+        @Override
+        public int postOrder() {
+            return this.subscriber.postOrder();
+        }
+
+        @Override
+        public boolean acceptsCancelled() {
+            return this.subscriber.acceptsCancelled();
+        }
+
+        @Override
+        public String toString() {
+            return this.subscriber + " [" + this.bindingKey + "]";
+        }
+    }
+}
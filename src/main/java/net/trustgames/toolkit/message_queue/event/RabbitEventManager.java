@@ -1,94 +1,270 @@
 package net.trustgames.toolkit.message_queue.event;
 
-import com.rabbitmq.client.*;
+import com.rabbitmq.client.Channel;
 import lombok.Getter;
 import net.trustgames.toolkit.event.PostResult;
+import net.trustgames.toolkit.message_queue.event.codec.EventCodec;
 import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.json.JSONObject;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 import static net.trustgames.toolkit.Toolkit.LOGGER;
 
 /**
- * Handles the publishing, declaration + creation of exchanges and queues using {@link RabbitEventConfig}
- * as well as delivery of the messages and their conversion from JSON to Event instances
- * @param channel
+ * Handles the publishing of events and their delivery to the event buses.
+ * How the events get from the publisher to the event buses is up to the {@link EventTransport},
+ * by default RabbitMQ, where the exchanges and queues are created using {@link RabbitEventConfig}
+ * and the events are converted to messages and back using the config's {@link EventCodec}.
+ * Received events are posted to the event bus by the dispatch executor.
+ *
+ * @see RabbitEventManagerBuilder
  */
-public record RabbitEventManager(Channel channel) {
+public final class RabbitEventManager {
     @Getter
     private static final String eventsExchangeName = "events";
+    static final int DEFAULT_PREFETCH_COUNT = 250;
+    static final int DEFAULT_ACK_BATCH_SIZE = 50;
+    static final long DEFAULT_ACK_LINGER_MILLIS = 50;
+
+    private final EventTransport transport;
+    private final OrderedDispatcher dispatcher;
+    private final TopologyRegistry topology = new TopologyRegistry();
+    private final EventMetrics metrics;
+    @Getter
+    private final UUID nodeId = UUID.randomUUID();
 
     /**
-     * Convert Event to JSON and publish it straight to RabbitMQ
+     * Creates the manager with default prefetch and ack batch size,
+     * which posts the events directly on the RabbitMQ consumer thread
+     * and publishes every event right away
+     *
+     * @param channel RabbitMQ channel
+     */
+    public RabbitEventManager(@NotNull Channel channel) {
+        this(new RabbitEventManagerBuilder(channel));
+    }
+
+    RabbitEventManager(@NotNull RabbitEventManagerBuilder builder) {
+        this.dispatcher = new OrderedDispatcher(builder.dispatchExecutor, builder.dispatchLanes);
+        this.transport = builder.transport != null ? builder.transport : new AmqpTransport(builder, nodeId);
+        this.metrics = new EventMetrics(transport);
+    }
+
+    /**
+     * @return RabbitMQ channel the manager publishes and consumes on
+     * @throws IllegalStateException if the events aren't sent through RabbitMQ
+     */
+    public @NotNull Channel channel() {
+        if (transport instanceof AmqpTransport amqpTransport) {
+            return amqpTransport.channel();
+        }
+        throw new IllegalStateException("Events are sent through " + transport.getClass().getSimpleName() + ", not RabbitMQ");
+    }
+
+    /**
+     * @return Transport the events are sent through
+     */
+    public @NotNull EventTransport transport() {
+        return transport;
+    }
+
+    /**
+     * @return Latencies of the received events and the backlog of the queues
+     */
+    public @NotNull EventMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Publish the event to all the event buses listening to the config, on all servers.
+     * With RabbitMQ, the event is encoded using the config's codec and if batching is enabled,
+     * sent together with other events bound for the same routing key. If local delivery is enabled,
+     * the event buses of this manager get the event right away and the copy from RabbitMQ is dropped
      *
      * @param event Event instance
      * @param config Event config
      * @param <E> Event type
+     * @see RabbitEventManagerBuilder#publishBatching(int, long)
+     * @see RabbitEventManagerBuilder#localDelivery(boolean)
      */
     public <E extends RabbitEvent> void publish(@NotNull E event, @NotNull RabbitEventConfig<E> config) {
-        try {
-            channel.basicPublish(eventsExchangeName, config.exchangeRoutingKey(), config.properties(), config.toJson().apply(event).toString().getBytes());
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Exception occurred while publishing message for event " + event, e);
-        }
+        transport.send(event, config);
     }
 
-    @SuppressWarnings("unchecked")
-    <E extends RabbitEvent, T extends E> void listen(@NotNull RabbitEventBus<E> eventBus, @NotNull RabbitEventConfig<? super T> config) {
-        declareExchange(config);
-        String queueName = declareQueue(config);
-        if (queueName != null) {
-            try {
-                deliver(queueName, eventBus, config);
-            } catch (IOException e) {
-                LOGGER.log(Level.SEVERE, "Error occurred while trying to consume messages from Queue " + queueName, e);
-            }
-        }
+    /**
+     * Publishes the request and completes the future with the first reply to it.
+     * With RabbitMQ, the request isn't batched, spooled or delivered locally, it's always sent
+     * to RabbitMQ and expires there once the timeout passes. The reply is received through
+     * the direct reply-to queue, so it takes one broker round trip.
+     *
+     * @param request Request event instance
+     * @param requestConfig Config of the request event, the responders need to use the same
+     * @param replyConfig Config of the reply event, used to decode the reply
+     * @param timeoutMillis Time to wait for the reply
+     * @param <Q> Request event type
+     * @param <R> Reply event type
+     * @return Future completed with the reply, or exceptionally with
+     * {@link java.util.concurrent.TimeoutException} if no server replied in time
+     * @see #respond(RabbitEventConfig, RabbitEventConfig, Function)
+     */
+    public <Q extends RabbitEvent, R extends RabbitEvent> @NotNull CompletableFuture<R> request(@NotNull Q request,
+                                                                                               @NotNull RabbitEventConfig<Q> requestConfig,
+                                                                                               @NotNull RabbitEventConfig<R> replyConfig,
+                                                                                               long timeoutMillis) {
+        return transport.request(request, requestConfig, replyConfig, timeoutMillis);
     }
 
-    private <E extends RabbitEvent> void declareExchange(RabbitEventConfig<? super E> config) {
-        try {
-            channel.exchangeDeclare(eventsExchangeName, BuiltinExchangeType.TOPIC, false, false, false, null);
-            channel.exchangeDeclare(config.exchangeName(), config.exchangeType(), false, true, true, null);
-            channel.exchangeBind(config.exchangeName(), eventsExchangeName, config.exchangeRoutingKey());
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Exception occurred while creating exchange for " + config.exchangeName(), e);
-        }
+    /**
+     * Answers the requests sent by {@link #request(RabbitEvent, RabbitEventConfig, RabbitEventConfig, long)}
+     * on any server. Every responding server gets every request, the requester takes the first reply.
+     * So servers which can't answer (e.g. the player isn't on them) should return null.
+     * The handler is run by the dispatch executor, on the lane of the request's ordering key.
+     * If the request config has a presence key and presence bindings are enabled,
+     * only the servers the player is on get the request.
+     *
+     * @param requestConfig Config of the request event
+     * @param replyConfig Config of the reply event, used to encode the reply
+     * @param handler Returns the future reply to the request, or null to not reply
+     * @param <Q> Request event type
+     * @param <R> Reply event type
+     */
+    public <Q extends RabbitEvent, R extends RabbitEvent> void respond(@NotNull RabbitEventConfig<Q> requestConfig,
+                                                                       @NotNull RabbitEventConfig<R> replyConfig,
+                                                                       @NotNull Function<Q, @Nullable CompletableFuture<R>> handler) {
+        Function<Q, UUID> orderingKey = requestConfig.orderingKey();
+        transport.respond(requestConfig, replyConfig, request -> {
+            CompletableFuture<R> future = new CompletableFuture<>();
+            dispatcher.execute(orderingKey == null ? null : orderingKey.apply(request), () -> {
+                try {
+                    CompletableFuture<R> reply = handler.apply(request);
+                    if (reply == null) {
+                        future.complete(null);
+                    } else {
+                        reply.whenComplete((event, throwable) -> {
+                            if (throwable != null) {
+                                future.completeExceptionally(throwable);
+                            } else {
+                                future.complete(event);
+                            }
+                        });
+                    }
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        });
+    }
+
+    /**
+     * Needs to be called when a player joins this server if presence bindings are enabled.
+     * Events about the player start to be received once the binding changes are applied
+     *
+     * @param player UUID of the player
+     * @see RabbitEventManagerBuilder#presenceBindings(long)
+     */
+    public void playerJoined(@NotNull UUID player) {
+        transport.presenceChanged(player, true);
     }
 
-    private <E extends RabbitEvent> @Nullable String declareQueue(RabbitEventConfig<? super E> config) {
-        String queue;
-        try {
-            queue = channel.queueDeclare("", false, true, true, null).getQueue();
-            channel.queueBind(queue, config.exchangeName(), config.exchangeRoutingKey());
-            return queue;
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Exception occurred while creating consumer queue for " + config.exchangeName(), e);
-            return null;
+    /**
+     * Needs to be called when a player leaves this server if presence bindings are enabled
+     *
+     * @param player UUID of the player
+     * @see RabbitEventManagerBuilder#presenceBindings(long)
+     */
+    public void playerLeft(@NotNull UUID player) {
+        transport.presenceChanged(player, false);
+    }
+
+    /**
+     * Sends all the events waiting in the publish batches right away
+     */
+    public void flush() {
+        transport.flush();
+    }
+
+    /**
+     * Sends the remaining batched events, stops the batching timer and the spool
+     * and fails the requests still waiting for the reply.
+     * Needs to be called before the channel is closed
+     */
+    public void close() {
+        transport.close();
+    }
+
+    /**
+     * Starts receiving the config's events matching the binding key for the event bus,
+     * unless the event bus already receives them. All the subscribers
+     * of the event bus then get the events from the one receiver (queue and consumer),
+     * which is bound with the binding keys of all of them.
+     *
+     * @return false if the receiver couldn't be created or bound with the binding key
+     */
+    synchronized <E extends RabbitEvent, T extends E> boolean listen(@NotNull RabbitEventBus<E> eventBus,
+                                                               @NotNull RabbitEventConfig<? super T> config,
+                                                               @NotNull String bindingKey) {
+        EventTransport.Receiver<?> existing = topology.receiver(eventBus, config);
+        if (existing == null) {
+            EventTransport.Receiver<T> receiver = (event, publishedMillis, onDone) ->
+                    dispatch(eventBus, config, event, publishedMillis, onDone);
+            if (!transport.receive(config, bindingKey, receiver)) return false;
+            topology.listening(eventBus, config, receiver, bindingKey);
+        } else if (topology.markBound(eventBus, config, bindingKey) && !transport.bind(config, existing, bindingKey)) {
+            topology.unmarkBound(eventBus, config, bindingKey);
+            return false;
         }
+        return true;
     }
 
-    private <E extends RabbitEvent, T extends E> void deliver(@NotNull String exchangeName,
-                                                              @NotNull RabbitEventBus<E> eventBus,
-                                                              @NotNull RabbitEventConfig<? super T> config) throws IOException {
-        channel.basicConsume(exchangeName, true, new DefaultConsumer(channel) {
-            @SuppressWarnings("unchecked")
-            @Override
-            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
-                String fullMessage = new String(body, StandardCharsets.UTF_8);
-                JSONObject json = new JSONObject(fullMessage);
-                PostResult result = eventBus.post((T) config.fromJson().apply(json));
+    /**
+     * Posts the event to the event bus on the dispatcher lane of its ordering key.
+     * If the event bus has an async executor, its subscribers run there tier by tier.
+     * The time from the publish and the time until the subscribers finish are recorded to the metrics
+     *
+     * @param publishedMillis Time the event was published at, or 0 if unknown
+     * @param onDone Called after the event is posted
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends RabbitEvent> void dispatch(@NotNull RabbitEventBus<?> eventBus,
+                                                  @NotNull RabbitEventConfig<? super T> config,
+                                                  @NotNull T event,
+                                                  long publishedMillis,
+                                                  @NotNull Runnable onDone) {
+        long receivedNanos = System.nanoTime();
+        EventMetrics.EventTypeMetrics typeMetrics = metrics.forType(event.getClass());
+        if (publishedMillis > 0) {
+            typeMetrics.deliveryLatency().record((System.currentTimeMillis() - publishedMillis) * 1000);
+        }
+        Function<? super T, UUID> orderingKey = (Function<? super T, UUID>) config.orderingKey();
+        RabbitEventBus<? super T> bus = (RabbitEventBus<? super T>) eventBus;
+        dispatcher.executeAsync(orderingKey == null ? null : orderingKey.apply(event), () -> {
+            CompletableFuture<PostResult> posted;
+            try {
+                posted = bus.postAsync(event);
+            } catch (RuntimeException e) {
+                posted = CompletableFuture.failedFuture(e);
+            }
+            // the lane waits for the tiers, so the next event with the same ordering key doesn't overtake this one
+            return posted.whenComplete((result, throwable) -> {
                 try {
-                    result.raise();
+                    if (throwable != null) {
+                        LOGGER.log(Level.SEVERE, "Exception occurred while posting event " + event, throwable);
+                    } else {
+                        result.raise();
+                    }
                 } catch (PostResult.CompositeException e) {
                     e.printAllStackTraces();
+                } finally {
+                    typeMetrics.processingLatency().record((System.nanoTime() - receivedNanos) / 1000);
+                    onDone.run();
                 }
-            }
+            });
         });
     }
 }
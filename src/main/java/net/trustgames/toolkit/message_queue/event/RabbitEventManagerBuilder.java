@@ -0,0 +1,183 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.Channel;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+
+/**
+ * Builder for {@link RabbitEventManager}.
+ * Provides a way to tune how the messages are consumed and dispatched.
+ * Apart from the dispatch executor, the options only apply to the RabbitMQ transport
+ */
+public final class RabbitEventManagerBuilder {
+    final Channel channel;
+    final EventTransport transport;
+    int prefetchCount = RabbitEventManager.DEFAULT_PREFETCH_COUNT;
+    int ackBatchSize = RabbitEventManager.DEFAULT_ACK_BATCH_SIZE;
+    long ackLingerMillis = RabbitEventManager.DEFAULT_ACK_LINGER_MILLIS;
+    Executor dispatchExecutor = Runnable::run;
+    int dispatchLanes = 1;
+    int batchMaxMessages = 1;
+    long batchLingerMillis;
+    boolean localDelivery;
+    Path spoolFile;
+    int spoolCapacity;
+    SpoolSyncPolicy spoolSyncPolicy;
+    SpoolOverflowPolicy spoolOverflowPolicy;
+    long presenceLingerMillis = -1;
+
+    /**
+     * @param channel RabbitMQ channel to send the events through
+     */
+    public RabbitEventManagerBuilder(@NotNull Channel channel) {
+        this.channel = channel;
+        this.transport = null;
+    }
+
+    /**
+     * @param transport Transport to send the events through instead of RabbitMQ
+     *                  (e.g. {@link LoopbackTransport} for a single server or tests)
+     */
+    public RabbitEventManagerBuilder(@NotNull EventTransport transport) {
+        this.channel = null;
+        this.transport = transport;
+    }
+
+    /**
+     * @param prefetchCount Max number of unacknowledged messages the broker
+     *                      pushes to each consumer (0 = unlimited)
+     */
+    public RabbitEventManagerBuilder prefetchCount(int prefetchCount) {
+        if (prefetchCount < 0) {
+            throw new IllegalArgumentException("Prefetch count can't be negative, got " + prefetchCount);
+        }
+        this.prefetchCount = prefetchCount;
+        return this;
+    }
+
+    /**
+     * @param ackBatchSize Number of processed messages to acknowledge at once
+     */
+    public RabbitEventManagerBuilder ackBatchSize(int ackBatchSize) {
+        if (ackBatchSize < 1) {
+            throw new IllegalArgumentException("Ack batch size needs to be at least 1, got " + ackBatchSize);
+        }
+        this.ackBatchSize = ackBatchSize;
+        return this;
+    }
+
+    /**
+     * @param ackLingerMillis Max time to wait for the ack batch to fill before
+     *                        the processed messages are acknowledged anyway
+     */
+    public RabbitEventManagerBuilder ackLingerMillis(long ackLingerMillis) {
+        if (ackLingerMillis < 0) {
+            throw new IllegalArgumentException("Ack linger time can't be negative, got " + ackLingerMillis);
+        }
+        this.ackLingerMillis = ackLingerMillis;
+        return this;
+    }
+
+    /**
+     * Posts the received events on the given executor rather than on the RabbitMQ consumer thread.
+     * Events with the same ordering key are kept in order by running them in the same lane.
+     *
+     * @param dispatchExecutor Executor to post the events on
+     * @param lanes Number of lanes which can run in parallel (usually the number of executor threads),
+     *              needs to be at least the number of shards of the sharded configs
+     * @see net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig#orderingKey()
+     */
+    public RabbitEventManagerBuilder dispatchExecutor(@NotNull Executor dispatchExecutor, int lanes) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("Dispatch lanes need to be at least 1, got " + lanes);
+        }
+        this.dispatchExecutor = dispatchExecutor;
+        this.dispatchLanes = lanes;
+        return this;
+    }
+
+    /**
+     * Collects the published events bound for the same routing key and sends them
+     * as one message, once there are {@code maxMessages} of them or {@code lingerMillis}
+     * passed since the first one. The batch is unpacked on delivery, so subscribers
+     * still get the events one by one.
+     *
+     * @param maxMessages Max number of events in one message (1 = batching disabled)
+     * @param lingerMillis Max time to wait for more events before the batch is sent
+     */
+    public RabbitEventManagerBuilder publishBatching(int maxMessages, long lingerMillis) {
+        if (maxMessages < 1) {
+            throw new IllegalArgumentException("Batch needs to have at least 1 message, got " + maxMessages);
+        }
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("Linger time can't be negative, got " + lingerMillis);
+        }
+        this.batchMaxMessages = maxMessages;
+        this.batchLingerMillis = lingerMillis;
+        return this;
+    }
+
+    /**
+     * When enabled, events published by the manager are posted to its own event buses
+     * right away, without waiting for RabbitMQ. The copy received back from RabbitMQ
+     * is recognized by the origin node header and dropped.
+     * The subscribers are run by the dispatch executor, so without one
+     * they run on the publishing thread, before the publish returns.
+     *
+     * @param localDelivery Whether to post the published events locally (disabled by default)
+     */
+    public RabbitEventManagerBuilder localDelivery(boolean localDelivery) {
+        this.localDelivery = localDelivery;
+        return this;
+    }
+
+    /**
+     * Events which can't be published, because the channel is closed or the connection is blocked,
+     * are written to the memory-mapped spool file instead of being dropped.
+     * Once the connection recovers, they are published in the order they were spooled.
+     *
+     * @param file File to keep the spooled events in (is created if it doesn't exist)
+     * @param capacityBytes Max size of the file
+     * @param syncPolicy How often the spooled events are forced to the disk
+     * @param overflowPolicy What to do when the spool is full
+     */
+    public RabbitEventManagerBuilder spool(@NotNull Path file,
+                                           int capacityBytes,
+                                           @NotNull SpoolSyncPolicy syncPolicy,
+                                           @NotNull SpoolOverflowPolicy overflowPolicy) {
+        if (capacityBytes < 1024) {
+            throw new IllegalArgumentException("Spool capacity needs to be at least 1024 bytes, got " + capacityBytes);
+        }
+        this.spoolFile = file;
+        this.spoolCapacity = capacityBytes;
+        this.spoolSyncPolicy = syncPolicy;
+        this.spoolOverflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * Receives the events with {@link net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig#presenceKey() presence key}
+     * only for the players on this server, by binding their UUIDs as they join and leave.
+     * The server needs to report them using {@link RabbitEventManager#playerJoined(java.util.UUID)}
+     * and {@link RabbitEventManager#playerLeft(java.util.UUID)}. Events of a player who just joined
+     * can be missed until the bindings are applied, so the player's data should be loaded on join anyway.
+     *
+     * @param lingerMillis Time to collect the joins and leaves for, before the binding changes are applied together
+     */
+    public RabbitEventManagerBuilder presenceBindings(long lingerMillis) {
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("Linger time can't be negative, got " + lingerMillis);
+        }
+        this.presenceLingerMillis = lingerMillis;
+        return this;
+    }
+
+    public RabbitEventManager build() {
+        if (prefetchCount != 0 && ackBatchSize > prefetchCount) {
+            throw new IllegalArgumentException("Ack batch size (" + ackBatchSize + ") can't be bigger than prefetch count (" + prefetchCount + ")");
+        }
+        return new RabbitEventManager(this);
+    }
+}
@@ -0,0 +1,536 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import net.trustgames.toolkit.message_queue.event.codec.EventCodec;
+import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.params.XAddParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.resps.StreamGroupInfo;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Sends the events through Redis Streams, so the Redis used for caching can serve the events as well
+ * and RabbitMQ isn't needed. Each config has its own stream, capped to the max length.
+ * <p>
+ * Every transport (server) reads the streams through its own consumer group, so each server
+ * gets every event (like with the exclusive RabbitMQ queues). All the streams are read by one thread
+ * with a single blocking XREADGROUP, which takes one connection from the pool. Processed entries
+ * are acknowledged in batches by the same thread before the next read.
+ * <p>
+ * With a server name, the consumer groups are named after the server and kept when the transport is closed,
+ * so after a restart the server continues reading where it stopped. Without it, each transport gets
+ * a random group name and the groups are removed when the transport is closed. Groups of other transports
+ * which weren't read for a day (e.g. the server crashed, or was renamed) are removed when a stream is subscribed.
+ * The entries which were read, but not acknowledged before the server stopped are read again
+ * when the stream is subscribed, before the new ones.
+ * <p>
+ * Reply streams expire an hour after the last reply or request, so the ones of crashed transports don't stay around.
+ */
+public final class RedisStreamsTransport implements EventTransport {
+    private static final String STREAM_PREFIX = "events:";
+    private static final String CONSUMER_NAME = "consumer";
+    private static final String CONTENT_TYPE_FIELD = "ct";
+    private static final String BODY_FIELD = "b";
+    private static final String REPLY_TO_FIELD = "rt";
+    private static final String CORRELATION_ID_FIELD = "cid";
+    private static final int REPLY_STREAM_MAX_LENGTH = 1000;
+    private static final long REPLY_STREAM_EXPIRY_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final String GROUP_PREFIX = "tg-";
+    private static final long GROUP_IDLE_EXPIRY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final JedisPool pool;
+    private final int maxLength;
+    private final int readCount;
+    private final int blockMillis;
+    private final String groupName;
+    private final boolean keepGroups;
+    private final String replyStream;
+    private final Map<String, CopyOnWriteArrayList<EntryHandler>> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Queue<StreamEntryID>> completed = new ConcurrentHashMap<>();
+    /**
+     * Streams whose pending entries from before the restart weren't read yet
+     */
+    private final Set<String> recovering = ConcurrentHashMap.newKeySet();
+    private final Map<String, CompletableFuture<StreamEntry>> pendingCalls = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    private final Object pollerLock = new Object();
+    private Thread poller;
+    private volatile boolean running = true;
+
+    /**
+     * Creates the transport with streams capped to 10 000 entries, reading up to
+     * 100 entries at once and waiting up to 1 second for new ones
+     *
+     * @param pool Redis pool (usually the Toolkit's one)
+     */
+    public RedisStreamsTransport(@NotNull JedisPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * Creates the transport with streams capped to 10 000 entries, reading up to
+     * 100 entries at once and waiting up to 1 second for new ones
+     *
+     * @param pool Redis pool (usually the Toolkit's one)
+     * @param serverName Unique name of the server, which stays the same after restart, or null for a random one
+     */
+    public RedisStreamsTransport(@NotNull JedisPool pool, @Nullable String serverName) {
+        this(pool, serverName, 10_000, 100, 1000);
+    }
+
+    /**
+     * @param pool Redis pool (usually the Toolkit's one)
+     * @param maxLength Approximate max number of entries kept in each stream
+     * @param readCount Max number of entries read at once
+     * @param blockMillis Max time to wait for new entries, also the delay before a new subscription is read
+     */
+    public RedisStreamsTransport(@NotNull JedisPool pool, int maxLength, int readCount, int blockMillis) {
+        this(pool, null, maxLength, readCount, blockMillis);
+    }
+
+    /**
+     * @param pool Redis pool (usually the Toolkit's one)
+     * @param serverName Unique name of the server, which stays the same after restart, or null for a random one
+     * @param maxLength Approximate max number of entries kept in each stream
+     * @param readCount Max number of entries read at once
+     * @param blockMillis Max time to wait for new entries, also the delay before a new subscription is read
+     */
+    public RedisStreamsTransport(@NotNull JedisPool pool, @Nullable String serverName, int maxLength, int readCount, int blockMillis) {
+        if (maxLength < 1 || readCount < 1 || blockMillis < 1) {
+            throw new IllegalArgumentException("Max length, read count and block time need to be positive");
+        }
+        this.groupName = GROUP_PREFIX + (serverName != null ? serverName : UUID.randomUUID());
+        this.keepGroups = serverName != null;
+        this.replyStream = STREAM_PREFIX + "reply:" + groupName;
+        this.pool = pool;
+        this.maxLength = maxLength;
+        this.readCount = readCount;
+        this.blockMillis = blockMillis;
+    }
+
+    @Override
+    public <E extends RabbitEvent> void send(@NotNull E event, @NotNull RabbitEventConfig<E> config) {
+        EventCodec<E> codec = config.codec();
+        Map<String, String> fields = new HashMap<>();
+        try {
+            fields.put(CONTENT_TYPE_FIELD, codec.contentType());
+            fields.put(BODY_FIELD, Base64.getEncoder().encodeToString(codec.encode(event)));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while encoding message for event " + event, e);
+            return;
+        }
+        add(streamKey(config), maxLength, fields, 0);
+    }
+
+    @Override
+    public <T extends RabbitEvent> boolean receive(@NotNull RabbitEventConfig<? super T> config,
+                                                   @NotNull String bindingKey,
+                                                   @NotNull Receiver<T> receiver) {
+        return subscribe(streamKey(config), (entry, onDone) -> {
+            T event = read(config, entry);
+            if (event == null) {
+                onDone.run();
+            } else {
+                // entry IDs start with the time the entry was added at
+                receiver.receive(event, entry.getID().getTime(), onDone);
+            }
+        });
+    }
+
+    /**
+     * Adds the request to the request stream with this transport's reply stream as reply-to
+     */
+    @Override
+    public <Q extends RabbitEvent, R extends RabbitEvent> @NotNull CompletableFuture<R> request(@NotNull Q request,
+                                                                                               @NotNull RabbitEventConfig<Q> requestConfig,
+                                                                                               @NotNull RabbitEventConfig<R> replyConfig,
+                                                                                               long timeoutMillis) {
+        if (!subscribe(replyStream, this::completeCall) || !touchReplyStream()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Reply stream " + replyStream + " couldn't be read"));
+        }
+        EventCodec<Q> codec = requestConfig.codec();
+        Map<String, String> fields = new HashMap<>();
+        try {
+            fields.put(CONTENT_TYPE_FIELD, codec.contentType());
+            fields.put(BODY_FIELD, Base64.getEncoder().encodeToString(codec.encode(request)));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        String correlationId = Long.toString(nextCorrelationId.incrementAndGet(), 36);
+        fields.put(REPLY_TO_FIELD, replyStream);
+        fields.put(CORRELATION_ID_FIELD, correlationId);
+
+        CompletableFuture<StreamEntry> future = new CompletableFuture<>();
+        pendingCalls.put(correlationId, future);
+        future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((entry, throwable) -> pendingCalls.remove(correlationId));
+        if (!add(streamKey(requestConfig), maxLength, fields, 0)) {
+            future.completeExceptionally(new IllegalStateException("Request " + request + " couldn't be sent"));
+        }
+
+        return future.thenApply(entry -> {
+            R reply = read(replyConfig, entry);
+            if (reply == null) {
+                throw new IllegalStateException("Reply to " + request + " couldn't be decoded");
+            }
+            return reply;
+        });
+    }
+
+    @Override
+    public <Q extends RabbitEvent, R extends RabbitEvent> void respond(@NotNull RabbitEventConfig<Q> requestConfig,
+                                                                       @NotNull RabbitEventConfig<R> replyConfig,
+                                                                       @NotNull Function<Q, @Nullable CompletableFuture<R>> handler) {
+        subscribe(streamKey(requestConfig), (entry, onDone) -> {
+            String replyTo = entry.getFields().get(REPLY_TO_FIELD);
+            Q request = replyTo == null ? null : read(requestConfig, entry);
+            if (request == null) {
+                onDone.run();
+                return;
+            }
+
+            CompletableFuture<R> reply;
+            try {
+                reply = handler.apply(request);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Exception occurred while handling request " + request, e);
+                onDone.run();
+                return;
+            }
+            if (reply == null) {
+                onDone.run();
+                return;
+            }
+            reply.whenComplete((event, throwable) -> {
+                if (throwable != null) {
+                    LOGGER.log(Level.SEVERE, "Exception occurred while handling request " + request, throwable);
+                } else if (event != null) {
+                    reply(replyTo, entry.getFields().get(CORRELATION_ID_FIELD), event, replyConfig);
+                }
+                onDone.run();
+            });
+        });
+    }
+
+    private <R extends RabbitEvent> void reply(@NotNull String replyTo,
+                                               @Nullable String correlationId,
+                                               @NotNull R reply,
+                                               @NotNull RabbitEventConfig<R> replyConfig) {
+        EventCodec<R> codec = replyConfig.codec();
+        Map<String, String> fields = new HashMap<>();
+        try {
+            fields.put(CONTENT_TYPE_FIELD, codec.contentType());
+            fields.put(BODY_FIELD, Base64.getEncoder().encodeToString(codec.encode(reply)));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while encoding reply " + reply, e);
+            return;
+        }
+        if (correlationId != null) {
+            fields.put(CORRELATION_ID_FIELD, correlationId);
+        }
+        // the requester could have crashed, so the stream is left to expire
+        add(replyTo, REPLY_STREAM_MAX_LENGTH, fields, REPLY_STREAM_EXPIRY_SECONDS);
+    }
+
+    /**
+     * Renews the expiry of the reply stream. If it has already expired, it's created again
+     * before the request is sent, so the reply doesn't create it without the consumer group
+     *
+     * @return false if the reply stream couldn't be renewed
+     */
+    private boolean touchReplyStream() {
+        try (Jedis jedis = pool.getResource()) {
+            if (jedis.expire(replyStream, REPLY_STREAM_EXPIRY_SECONDS) == 0) {
+                createGroup(jedis, replyStream);
+                jedis.expire(replyStream, REPLY_STREAM_EXPIRY_SECONDS);
+            }
+            return true;
+        } catch (JedisException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while renewing Redis reply stream " + replyStream, e);
+            return false;
+        }
+    }
+
+    private void completeCall(@NotNull StreamEntry entry, @NotNull Runnable onDone) {
+        String correlationId = entry.getFields().get(CORRELATION_ID_FIELD);
+        // late replies (after timeout) and replies from other servers than the first one are dropped
+        CompletableFuture<StreamEntry> future = correlationId == null ? null : pendingCalls.remove(correlationId);
+        if (future != null) {
+            future.complete(entry);
+        }
+        onDone.run();
+    }
+
+    /**
+     * Stops reading the streams, acknowledges the processed entries
+     * and removes the reply stream and the consumer groups, unless they are named after the server
+     */
+    @Override
+    public void close() {
+        running = false;
+        Thread thread;
+        synchronized (pollerLock) {
+            thread = poller;
+        }
+        if (thread != null) {
+            try {
+                // the read in progress ends once the block time passes
+                thread.join(blockMillis * 2L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        try (Jedis jedis = pool.getResource()) {
+            if (!keepGroups) {
+                for (String stream : handlers.keySet()) {
+                    jedis.xgroupDestroy(stream, groupName);
+                }
+            }
+            jedis.del(replyStream);
+        } catch (JedisException e) {
+            LOGGER.log(Level.WARNING, "Exception occurred while removing Redis consumer group " + groupName, e);
+        }
+        for (CompletableFuture<StreamEntry> future : pendingCalls.values()) {
+            future.completeExceptionally(new IllegalStateException("Redis streams transport was closed"));
+        }
+    }
+
+    /**
+     * @param expirySeconds Time after which the stream expires if nothing else is added, or 0 to keep it
+     * @return true if the entry was added to the stream
+     */
+    private boolean add(@NotNull String stream, int maxLength, @NotNull Map<String, String> fields, long expirySeconds) {
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.xadd(stream, XAddParams.xAddParams().maxLen(maxLength).approximateTrimming(), fields);
+            if (expirySeconds > 0) {
+                pipeline.expire(stream, expirySeconds);
+            }
+            pipeline.sync();
+            return true;
+        } catch (JedisException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while adding entry to Redis stream " + stream, e);
+            return false;
+        }
+    }
+
+    /**
+     * Creates the consumer group for the stream (if it's the first handler of the stream)
+     * and starts the reading thread if it isn't running yet.
+     * The entries pending from before the restart are read first
+     *
+     * @return false if the consumer group couldn't be created
+     */
+    private boolean subscribe(@NotNull String stream, @NotNull EntryHandler handler) {
+        if (!handlers.containsKey(stream)) {
+            try (Jedis jedis = pool.getResource()) {
+                createGroup(jedis, stream);
+                removeIdleGroups(jedis, stream);
+            } catch (JedisException e) {
+                LOGGER.log(Level.SEVERE, "Exception occurred while creating Redis consumer group for stream " + stream, e);
+                return false;
+            }
+            recovering.add(stream);
+        }
+        CopyOnWriteArrayList<EntryHandler> streamHandlers = handlers.computeIfAbsent(stream, key -> new CopyOnWriteArrayList<>());
+        // the reply stream only needs to be subscribed once
+        if (!stream.equals(replyStream) || streamHandlers.isEmpty()) {
+            streamHandlers.add(handler);
+        }
+
+        synchronized (pollerLock) {
+            if (poller == null && running) {
+                poller = new Thread(this::poll, "TG-Toolkit redis streams");
+                poller.setDaemon(true);
+                poller.start();
+            }
+        }
+        return true;
+    }
+
+    private void createGroup(@NotNull Jedis jedis, @NotNull String stream) {
+        try {
+            // only the entries added from now on are read, like with a new queue
+            jedis.xgroupCreate(stream, groupName, StreamEntryID.LAST_ENTRY, true);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Removes the groups of other transports whose consumers didn't read the stream for a day,
+     * as nobody would read them again and their pending entries would be kept forever
+     */
+    private void removeIdleGroups(@NotNull Jedis jedis, @NotNull String stream) {
+        for (StreamGroupInfo group : jedis.xinfoGroups(stream)) {
+            String name = group.getName();
+            if (!name.startsWith(GROUP_PREFIX) || name.equals(groupName)) continue;
+            boolean idle = jedis.xinfoConsumers(stream, name).stream()
+                    .allMatch(consumer -> consumer.getIdle() > GROUP_IDLE_EXPIRY_MILLIS);
+            // a group without consumers could have just been created, its transport reads it a moment later
+            if (idle && group.getConsumers() > 0) {
+                jedis.xgroupDestroy(stream, name);
+                LOGGER.info("Removed Redis consumer group " + name + " of stream " + stream + ", which wasn't read for a day");
+            }
+        }
+    }
+
+    private void poll() {
+        while (running) {
+            Map<String, StreamEntryID> streams = new HashMap<>();
+            Set<String> recovered = new HashSet<>();
+            for (String stream : handlers.keySet()) {
+                if (recovering.contains(stream)) {
+                    // reading from 0 gives the entries delivered to this consumer, but not acknowledged
+                    streams.put(stream, new StreamEntryID());
+                    recovered.add(stream);
+                } else {
+                    streams.put(stream, StreamEntryID.UNRECEIVED_ENTRY);
+                }
+            }
+
+            List<Map.Entry<String, List<StreamEntry>>> read;
+            try (Jedis jedis = pool.getResource()) {
+                acknowledge(jedis);
+                read = jedis.xreadGroup(groupName, CONSUMER_NAME,
+                        XReadGroupParams.xReadGroupParams().count(readCount).block(blockMillis), streams);
+            } catch (JedisDataException e) {
+                // the streams were removed (e.g. Redis was restarted without persistence)
+                if (e.getMessage() != null && e.getMessage().startsWith("NOGROUP")) {
+                    recreateGroups();
+                } else {
+                    LOGGER.log(Level.SEVERE, "Exception occurred while reading Redis streams", e);
+                    pause();
+                }
+                continue;
+            } catch (JedisException e) {
+                if (!running) break;
+                LOGGER.log(Level.SEVERE, "Exception occurred while reading Redis streams, will be retried", e);
+                pause();
+                continue;
+            }
+
+            if (read != null) {
+                for (Map.Entry<String, List<StreamEntry>> streamEntries : read) {
+                    // the pending entries are read in pages of the read count
+                    if (streamEntries.getValue().size() >= readCount) {
+                        recovered.remove(streamEntries.getKey());
+                    }
+                    for (StreamEntry entry : streamEntries.getValue()) {
+                        handle(streamEntries.getKey(), entry);
+                    }
+                }
+            }
+            recovering.removeAll(recovered);
+        }
+
+        try (Jedis jedis = pool.getResource()) {
+            acknowledge(jedis);
+        } catch (JedisException e) {
+            LOGGER.log(Level.WARNING, "Exception occurred while acknowledging Redis stream entries", e);
+        }
+    }
+
+    /**
+     * Passes the entry to all the handlers of the stream. The entry is acknowledged once all of them are done
+     */
+    private void handle(@NotNull String stream, @NotNull StreamEntry entry) {
+        List<EntryHandler> streamHandlers = handlers.get(stream);
+        if (streamHandlers == null) return;
+        if (entry.getFields() == null) {
+            // pending entry which was trimmed from the stream in the meantime
+            completed.computeIfAbsent(stream, key -> new ConcurrentLinkedQueue<>()).add(entry.getID());
+            return;
+        }
+        AtomicInteger remaining = new AtomicInteger(streamHandlers.size());
+        Runnable onDone = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                completed.computeIfAbsent(stream, key -> new ConcurrentLinkedQueue<>()).add(entry.getID());
+            }
+        };
+        for (EntryHandler handler : streamHandlers) {
+            try {
+                handler.handle(entry, onDone);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Exception occurred while handling entry of Redis stream " + stream, e);
+                onDone.run();
+            }
+        }
+    }
+
+    /**
+     * Acknowledges all the processed entries, with one XACK per stream
+     */
+    private void acknowledge(@NotNull Jedis jedis) {
+        for (Map.Entry<String, Queue<StreamEntryID>> streamCompleted : completed.entrySet()) {
+            Queue<StreamEntryID> queue = streamCompleted.getValue();
+            List<StreamEntryID> ids = new ArrayList<>();
+            StreamEntryID id;
+            while ((id = queue.poll()) != null) {
+                ids.add(id);
+            }
+            if (!ids.isEmpty()) {
+                jedis.xack(streamCompleted.getKey(), groupName, ids.toArray(StreamEntryID[]::new));
+            }
+        }
+    }
+
+    private void recreateGroups() {
+        try (Jedis jedis = pool.getResource()) {
+            for (String stream : handlers.keySet()) {
+                createGroup(jedis, stream);
+            }
+        } catch (JedisException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while creating Redis consumer groups again", e);
+            pause();
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static <T extends RabbitEvent> @Nullable T read(@NotNull RabbitEventConfig<? super T> config, @NotNull StreamEntry entry) {
+        String body = entry.getFields().get(BODY_FIELD);
+        if (body == null) return null;
+        try {
+            return EventReader.read(config, entry.getFields().get(CONTENT_TYPE_FIELD), Base64.getDecoder().decode(body));
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while reading entry " + entry.getID() + " of " + config.exchangeName(), e);
+            return null;
+        }
+    }
+
+    private static String streamKey(RabbitEventConfig<?> config) {
+        return STREAM_PREFIX + config.exchangeName() + ":" + config.exchangeRoutingKey();
+    }
+
+    @FunctionalInterface
+    private interface EntryHandler {
+        void handle(@NotNull StreamEntry entry, @NotNull Runnable onDone);
+    }
+}
@@ -0,0 +1,115 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Sends the requests and matches the replies to them by correlation id.
+ * Replies are received through the direct reply-to pseudo-queue, so there is no reply queue
+ * to declare and the reply takes one broker round trip. Direct reply-to needs an auto-ack consumer,
+ * so it has its own channel, as it would break the batched acks of the event channel.
+ * Calls waiting for the reply are only kept in a map, no thread waits for them.
+ */
+final class RpcClient {
+    static final String REPLY_TO = "amq.rabbitmq.reply-to";
+
+    private final Connection connection;
+    private final Map<String, CompletableFuture<Delivery>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    private Channel channel;
+
+    RpcClient(@NotNull Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * @param exchangeName Exchange to publish the request to
+     * @param routingKey Routing key to publish the request with
+     * @param properties Properties of the request, reply-to and correlation id are added
+     * @param body Encoded request
+     * @param timeoutMillis Time after which the future completes with {@link TimeoutException}
+     * @return Future completed with the first reply
+     */
+    @NotNull CompletableFuture<Delivery> call(@NotNull String exchangeName,
+                                              @NotNull String routingKey,
+                                              @NotNull AMQP.BasicProperties properties,
+                                              byte @NotNull [] body,
+                                              long timeoutMillis) {
+        String correlationId = Long.toString(nextCorrelationId.incrementAndGet(), 36);
+        CompletableFuture<Delivery> future = new CompletableFuture<>();
+        pending.put(correlationId, future);
+        future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((delivery, throwable) -> pending.remove(correlationId));
+
+        try {
+            // the request has to be published on the channel which consumes the replies
+            channel().basicPublish(exchangeName, routingKey, properties.builder()
+                    .replyTo(REPLY_TO)
+                    .correlationId(correlationId)
+                    .build(), body);
+        } catch (IOException | ShutdownSignalException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Closes the reply channel and fails the calls still waiting for the reply
+     */
+    synchronized void close() {
+        if (channel != null && channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException | TimeoutException | ShutdownSignalException e) {
+                LOGGER.log(Level.WARNING, "Exception occurred while closing RabbitMQ reply channel", e);
+            }
+        }
+        failPending(new IllegalStateException("RabbitMQ reply channel was closed"));
+    }
+
+    /**
+     * Opens the channel and starts consuming the replies on the first call
+     */
+    private synchronized Channel channel() throws IOException {
+        if (channel != null && channel.isOpen()) return channel;
+
+        Channel replyChannel = connection.createChannel();
+        replyChannel.basicConsume(REPLY_TO, true, new DefaultConsumer(replyChannel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                String correlationId = properties.getCorrelationId();
+                if (correlationId == null) return;
+                // late replies (after timeout) and replies from other servers than the first one are dropped
+                CompletableFuture<Delivery> future = pending.remove(correlationId);
+                if (future != null) {
+                    future.complete(new Delivery(envelope, properties, body));
+                }
+            }
+
+            @Override
+            public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+                // replies can't be received on another channel, so the calls would only time out
+                failPending(sig);
+            }
+        });
+        this.channel = replyChannel;
+        return replyChannel;
+    }
+
+    private void failPending(Throwable throwable) {
+        for (CompletableFuture<Delivery> future : pending.values()) {
+            future.completeExceptionally(throwable);
+        }
+    }
+}
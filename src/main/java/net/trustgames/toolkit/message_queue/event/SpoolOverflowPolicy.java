@@ -0,0 +1,17 @@
+package net.trustgames.toolkit.message_queue.event;
+
+/**
+ * What to do with the event when the spool is full
+ *
+ * @see RabbitEventManagerBuilder#spool(java.nio.file.Path, int, SpoolSyncPolicy, SpoolOverflowPolicy)
+ */
+public enum SpoolOverflowPolicy {
+    /**
+     * The new event is dropped
+     */
+    DROP_NEWEST,
+    /**
+     * The oldest spooled events are dropped to make space for the new one
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,21 @@
+package net.trustgames.toolkit.message_queue.event;
+
+/**
+ * How often the spooled events are forced from memory to the disk
+ *
+ * @see RabbitEventManagerBuilder#spool(java.nio.file.Path, int, SpoolSyncPolicy, SpoolOverflowPolicy)
+ */
+public enum SpoolSyncPolicy {
+    /**
+     * Left to the operating system. Survives the process crash, but not the machine crash
+     */
+    NEVER,
+    /**
+     * Forced once per second
+     */
+    PERIODIC,
+    /**
+     * Forced after every spooled event. Slowest, but nothing is lost
+     */
+    EVERY_RECORD
+}
@@ -0,0 +1,42 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Matches routing keys against binding patterns the same way the TOPIC exchange of RabbitMQ does.
+ * Words are separated by dots, {@code *} stands for exactly one word and {@code #} for zero or more words.
+ * Used to filter the events which weren't filtered by the broker (e.g. delivered locally
+ * or brought in by the binding of another subscriber).
+ */
+final class TopicPattern {
+    private TopicPattern() {
+    }
+
+    /**
+     * @param pattern Binding pattern, e.g. {@code player-data-update.level.#}
+     * @param routingKey Routing key of the event, e.g. {@code player-data-update.level}
+     * @return true if the pattern matches the routing key
+     */
+    static boolean matches(@NotNull String pattern, @NotNull String routingKey) {
+        if (pattern.equals(routingKey) || pattern.equals("#")) return true;
+        return matches(pattern.split("\\.", -1), 0, routingKey.split("\\.", -1), 0);
+    }
+
+    private static boolean matches(String[] pattern, int patternIndex, String[] words, int wordIndex) {
+        while (patternIndex < pattern.length) {
+            String part = pattern[patternIndex];
+            if (part.equals("#")) {
+                // try every number of words the # can stand for
+                for (int skip = wordIndex; skip <= words.length; skip++) {
+                    if (matches(pattern, patternIndex + 1, words, skip)) return true;
+                }
+                return false;
+            }
+            if (wordIndex >= words.length) return false;
+            if (!part.equals("*") && !part.equals(words[wordIndex])) return false;
+            patternIndex++;
+            wordIndex++;
+        }
+        return wordIndex == words.length;
+    }
+}
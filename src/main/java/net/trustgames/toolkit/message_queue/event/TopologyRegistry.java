@@ -0,0 +1,68 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of which event buses already receive the events of the given event config
+ * and with which binding keys, so only one queue and consumer is created for each of them
+ * and every binding is created only once.
+ * Event configs are usually created again for every use, so they are
+ * identified by their exchange name and routing key rather than by instance.
+ * Access needs to be synchronized by the manager.
+ */
+final class TopologyRegistry {
+    private final Map<String, Map<RabbitEventBus<?>, Listener>> listening = new HashMap<>();
+
+    /**
+     * @return Receiver of the event bus for the config, or null if the event bus isn't consuming
+     * the config's events yet and the queue and consumer need to be created
+     */
+    @Nullable EventTransport.Receiver<?> receiver(@NotNull RabbitEventBus<?> eventBus, @NotNull RabbitEventConfig<?> config) {
+        Map<RabbitEventBus<?>, Listener> listeners = listening.get(key(config));
+        Listener listener = listeners == null ? null : listeners.get(eventBus);
+        return listener == null ? null : listener.receiver();
+    }
+
+    /**
+     * Called once the queue and consumer are created
+     */
+    void listening(@NotNull RabbitEventBus<?> eventBus,
+                   @NotNull RabbitEventConfig<?> config,
+                   @NotNull EventTransport.Receiver<?> receiver,
+                   @NotNull String bindingKey) {
+        Set<String> bindingKeys = new HashSet<>();
+        bindingKeys.add(bindingKey);
+        // event bus is compared by identity, as it doesn't override equals
+        listening.computeIfAbsent(key(config), key -> new IdentityHashMap<>())
+                .put(eventBus, new Listener(receiver, bindingKeys));
+    }
+
+    /**
+     * @return true if the event bus doesn't have the binding key yet and the binding needs to be created
+     */
+    boolean markBound(@NotNull RabbitEventBus<?> eventBus, @NotNull RabbitEventConfig<?> config, @NotNull String bindingKey) {
+        return listening.get(key(config)).get(eventBus).bindingKeys().add(bindingKey);
+    }
+
+    /**
+     * In case the binding couldn't be created, so it can be tried again
+     */
+    void unmarkBound(@NotNull RabbitEventBus<?> eventBus, @NotNull RabbitEventConfig<?> config, @NotNull String bindingKey) {
+        listening.get(key(config)).get(eventBus).bindingKeys().remove(bindingKey);
+    }
+
+    private static String key(RabbitEventConfig<?> config) {
+        return config.exchangeName() + '\0' + config.exchangeRoutingKey();
+    }
+
+    private record Listener(EventTransport.Receiver<?> receiver, Set<String> bindingKeys) {
+    }
+}
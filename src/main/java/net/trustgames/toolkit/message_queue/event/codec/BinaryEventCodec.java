@@ -0,0 +1,51 @@
+package net.trustgames.toolkit.message_queue.event.codec;
+
+import net.trustgames.toolkit.message_queue.event.RabbitEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Encodes the event into compact binary form (varints, 16-byte UUIDs, enum ordinals)
+ * using the given write and read functions. The fields need to be read
+ * in the same order as they were written.
+ *
+ * @param <E> Event type
+ * @implNote Enums are written as ordinals, so reordering enum constants
+ * breaks messages sent between servers with different versions
+ */
+public final class BinaryEventCodec<E extends RabbitEvent> implements EventCodec<E> {
+    public static final String CONTENT_TYPE = "application/x-tg-binary";
+
+    private final BiConsumer<E, BinaryWriter> writer;
+    private final Function<BinaryReader, E> reader;
+
+    public BinaryEventCodec(@NotNull BiConsumer<E, BinaryWriter> writer,
+                            @NotNull Function<BinaryReader, E> reader) {
+        this.writer = writer;
+        this.reader = reader;
+    }
+
+    @Override
+    public @NotNull String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte @NotNull [] encode(@NotNull E event) {
+        BinaryWriter binaryWriter = new BinaryWriter();
+        writer.accept(event, binaryWriter);
+        return binaryWriter.toByteArray();
+    }
+
+    @Override
+    public @NotNull E decode(byte @NotNull [] body) {
+        BinaryReader binaryReader = new BinaryReader(body);
+        E event = reader.apply(binaryReader);
+        if (binaryReader.remaining() != 0) {
+            throw new IllegalArgumentException(binaryReader.remaining() + " unread bytes left in the message body");
+        }
+        return event;
+    }
+}
@@ -0,0 +1,129 @@
+package net.trustgames.toolkit.message_queue.event.codec;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Reads values written by {@link BinaryWriter} from the byte array
+ */
+public final class BinaryReader {
+    private final byte[] buffer;
+    private int position;
+
+    BinaryReader(byte @NotNull [] buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @param buffer Bytes to read from
+     * @return New reader starting at the first byte
+     */
+    public static BinaryReader of(byte @NotNull [] buffer) {
+        return new BinaryReader(buffer);
+    }
+
+    /**
+     * @see BinaryWriter#writeVarInt(int)
+     */
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarInt is too long");
+    }
+
+    /**
+     * @see BinaryWriter#writeVarLong(long)
+     */
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("VarLong is too long");
+    }
+
+    /**
+     * @see BinaryWriter#writeUUID(UUID)
+     */
+    public @NotNull UUID readUUID() {
+        return new UUID(readLong(), readLong());
+    }
+
+    /**
+     * @param enumClass Class of the enum
+     * @see BinaryWriter#writeEnum(Enum)
+     */
+    public <T extends Enum<T>> @NotNull T readEnum(@NotNull Class<T> enumClass) {
+        T[] constants = enumClass.getEnumConstants();
+        int ordinal = readVarInt();
+        if (ordinal < 0 || ordinal >= constants.length) {
+            throw new IllegalArgumentException("Invalid ordinal " + ordinal + " for enum " + enumClass.getSimpleName());
+        }
+        return constants[ordinal];
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public long readLong() {
+        ensureAvailable(8);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @see BinaryWriter#writeBytes(byte[])
+     */
+    public byte @NotNull [] readBytes() {
+        int length = readVarInt();
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+        ensureAvailable(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, position, bytes, 0, length);
+        position += length;
+        return bytes;
+    }
+
+    /**
+     * @see BinaryWriter#writeString(String)
+     */
+    public @NotNull String readString() {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Number of bytes left to read
+     */
+    public int remaining() {
+        return buffer.length - position;
+    }
+
+    private byte readByte() {
+        ensureAvailable(1);
+        return buffer[position++];
+    }
+
+    private void ensureAvailable(int bytes) {
+        if (bytes > remaining()) {
+            throw new IllegalArgumentException("Message body ended unexpectedly, needed " + bytes + " more bytes, but only " + remaining() + " are left");
+        }
+    }
+}
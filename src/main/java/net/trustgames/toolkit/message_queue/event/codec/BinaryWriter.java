@@ -0,0 +1,120 @@
+package net.trustgames.toolkit.message_queue.event.codec;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Writes values into a growing byte array
+ *
+ * @see BinaryReader
+ */
+public final class BinaryWriter {
+    private byte[] buffer;
+    private int position;
+
+    BinaryWriter() {
+        this(32);
+    }
+
+    BinaryWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    /**
+     * @param initialCapacity Expected number of bytes to be written
+     * @return New writer
+     */
+    public static BinaryWriter withCapacity(int initialCapacity) {
+        return new BinaryWriter(Math.max(initialCapacity, 1));
+    }
+
+    /**
+     * Writes the int in 1-5 bytes, smaller (non-negative) values take fewer bytes
+     */
+    public BinaryWriter writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Writes the long in 1-10 bytes, smaller (non-negative) values take fewer bytes
+     */
+    public BinaryWriter writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Writes the UUID as its two longs (16 bytes)
+     */
+    public BinaryWriter writeUUID(@NotNull UUID uuid) {
+        writeLong(uuid.getMostSignificantBits());
+        writeLong(uuid.getLeastSignificantBits());
+        return this;
+    }
+
+    /**
+     * Writes the enum as varint of its ordinal
+     */
+    public BinaryWriter writeEnum(@NotNull Enum<?> value) {
+        return writeVarInt(value.ordinal());
+    }
+
+    public BinaryWriter writeBoolean(boolean value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) (value ? 1 : 0);
+        return this;
+    }
+
+    public BinaryWriter writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[position++] = (byte) (value >>> shift);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the length of the bytes as varint, followed by the bytes
+     */
+    public BinaryWriter writeBytes(byte @NotNull [] bytes) {
+        writeVarInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+        return this;
+    }
+
+    /**
+     * Writes the string as length-prefixed UTF-8 bytes
+     */
+    public BinaryWriter writeString(@NotNull String value) {
+        return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return Copy of the written bytes
+     */
+    public byte @NotNull [] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (position + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package net.trustgames.toolkit.message_queue.event.codec;
+
+import net.trustgames.toolkit.message_queue.event.RabbitEvent;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Converts the event to the message body and back.
+ * The content type is sent in the message properties,
+ * so the receiving side knows which format the body is in.
+ *
+ * @param <E> Event type
+ * @see JsonEventCodec
+ * @see BinaryEventCodec
+ */
+public interface EventCodec<E extends RabbitEvent> {
+    /**
+     * @return Content type of the encoded body (e.g. application/json)
+     */
+    @NotNull String contentType();
+
+    /**
+     * @param event Event to encode
+     * @return Encoded message body
+     */
+    byte @NotNull [] encode(@NotNull E event);
+
+    /**
+     * @param body Encoded message body
+     * @return Decoded event
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull E decode(byte @NotNull [] body);
+}
@@ -0,0 +1,42 @@
+package net.trustgames.toolkit.message_queue.event.codec;
+
+import net.trustgames.toolkit.message_queue.event.RabbitEvent;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
+
+/**
+ * Encodes the event as JSON using the functions from the event config.
+ * This is the default codec and also the fallback for messages without content type.
+ *
+ * @param <E> Event type
+ */
+public final class JsonEventCodec<E extends RabbitEvent> implements EventCodec<E> {
+    public static final String CONTENT_TYPE = "application/json";
+
+    private final Function<E, JSONObject> toJson;
+    private final Function<JSONObject, E> fromJson;
+
+    public JsonEventCodec(@NotNull Function<E, JSONObject> toJson,
+                          @NotNull Function<JSONObject, E> fromJson) {
+        this.toJson = toJson;
+        this.fromJson = fromJson;
+    }
+
+    @Override
+    public @NotNull String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte @NotNull [] encode(@NotNull E event) {
+        return toJson.apply(event).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public @NotNull E decode(byte @NotNull [] body) {
+        return fromJson.apply(new JSONObject(new String(body, StandardCharsets.UTF_8)));
+    }
+}
@@ -4,7 +4,13 @@ import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.BuiltinExchangeType;
 import net.trustgames.toolkit.event.EventConfig;
 import net.trustgames.toolkit.message_queue.event.RabbitEvent;
+import net.trustgames.toolkit.message_queue.event.codec.EventCodec;
+import net.trustgames.toolkit.message_queue.event.codec.JsonEventCodec;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+import java.util.function.Function;
 
 /**
  * Config for {@link RabbitEvent}.
@@ -18,4 +24,66 @@ public interface RabbitEventConfig<E extends RabbitEvent> extends EventConfig<E>
     @NotNull BuiltinExchangeType exchangeType();
     @NotNull String exchangeRoutingKey();
     @NotNull AMQP.BasicProperties properties();
+
+    /**
+     * Routing key the event is published with. It should be made of the event fields
+     * the subscribers filter by (e.g. {@code player-data-update.level}), so they can bind
+     * only to the events they need with a topic pattern, see
+     * {@link net.trustgames.toolkit.message_queue.event.RabbitEventBus#subscribe(Class, RabbitEventConfig, String, net.trustgames.toolkit.event.EventSubscriber)}.
+     * The routing key needs to match the {@link #exchangeRoutingKey()} pattern
+     * and the exchange needs to be of TOPIC type for the broker to filter the events.
+     *
+     * @param event Event instance
+     * @return Routing key of the event, {@link #exchangeRoutingKey()} by default
+     */
+    default @NotNull String routingKey(@NotNull E event) {
+        return exchangeRoutingKey();
+    }
+
+    /**
+     * Events with the same ordering key are always posted in the order they were received,
+     * even if the events are dispatched on multiple threads
+     *
+     * @return Function to get the ordering key (e.g. player's UUID) from the event,
+     * or null if the order of the events doesn't matter
+     */
+    default @Nullable Function<E, UUID> orderingKey() {
+        return null;
+    }
+
+    /**
+     * Events with presence key are published with the player's UUID added to the routing key as the last word.
+     * Managers with presence bindings enabled bind only the UUIDs of the players on their server,
+     * so they don't receive the events of other players. Others bind all the UUIDs.
+     *
+     * @return Function to get the UUID of the player the event is about, or null if it isn't about a player
+     * @see net.trustgames.toolkit.message_queue.event.RabbitEventManagerBuilder#presenceBindings(long)
+     */
+    default @Nullable Function<E, UUID> presenceKey() {
+        return null;
+    }
+
+    /**
+     * Number of queues (each with its own consumer thread) the events are spread over on each server.
+     * Events are assigned to the queues by consistent hash of the {@link #orderingKey()},
+     * so the events with the same key stay in order. Needs the ordering key to be set and
+     * the rabbitmq_consistent_hash_exchange plugin enabled on the broker.
+     * The events of all the queues are posted by the dispatcher, so the manager needs
+     * a dispatch executor with at least as many lanes as there are shards, otherwise it refuses to receive them.
+     *
+     * @return Number of shard queues, 1 means no sharding
+     */
+    default int shards() {
+        return 1;
+    }
+
+    /**
+     * Messages with other content type than the one of the codec
+     * are read as JSON using {@link #fromJson()}
+     *
+     * @return Codec used to convert the event to the message body and back
+     */
+    default @NotNull EventCodec<E> codec() {
+        return new JsonEventCodec<>(toJson(), fromJson());
+    }
 }
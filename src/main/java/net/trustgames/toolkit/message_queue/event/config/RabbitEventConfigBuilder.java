@@ -3,9 +3,13 @@ package net.trustgames.toolkit.message_queue.event.config;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.BuiltinExchangeType;
 import net.trustgames.toolkit.message_queue.event.RabbitEvent;
+import net.trustgames.toolkit.message_queue.event.codec.EventCodec;
+import net.trustgames.toolkit.message_queue.event.codec.JsonEventCodec;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONObject;
 
+import java.util.UUID;
 import java.util.function.Function;
 
 /**
@@ -21,6 +25,11 @@ public class RabbitEventConfigBuilder<E extends RabbitEvent> {
     private AMQP.BasicProperties properties;
     private Function<E, JSONObject> toJson;
     private Function<JSONObject, E> fromJson;
+    private Function<E, UUID> orderingKey;
+    private Function<E, String> routingKey;
+    private Function<E, UUID> presenceKey;
+    private EventCodec<E> codec;
+    private int shards = 1;
 
     public RabbitEventConfigBuilder<E> exchangeName(@NotNull String exchangeName) {
         this.exchangeName = exchangeName;
@@ -53,7 +62,55 @@ public class RabbitEventConfigBuilder<E extends RabbitEvent> {
         return this;
     }
 
+    public RabbitEventConfigBuilder<E> orderingKey(@NotNull Function<E, UUID> orderingKey) {
+        this.orderingKey = orderingKey;
+        return this;
+    }
+
+    /**
+     * If not set, all the events are published with the exchange routing key
+     *
+     * @see RabbitEventConfig#routingKey(RabbitEvent)
+     */
+    public RabbitEventConfigBuilder<E> routingKey(@NotNull Function<E, String> routingKey) {
+        this.routingKey = routingKey;
+        return this;
+    }
+
+    /**
+     * @see RabbitEventConfig#presenceKey()
+     */
+    public RabbitEventConfigBuilder<E> presenceKey(@NotNull Function<E, UUID> presenceKey) {
+        this.presenceKey = presenceKey;
+        return this;
+    }
+
+    /**
+     * If not set, the event is sent as JSON
+     */
+    public RabbitEventConfigBuilder<E> codec(@NotNull EventCodec<E> codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * @see RabbitEventConfig#shards()
+     */
+    public RabbitEventConfigBuilder<E> shards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Number of shards needs to be at least 1, got " + shards);
+        }
+        this.shards = shards;
+        return this;
+    }
+
     public RabbitEventConfig<E> build() {
+        if (shards > 1 && orderingKey == null) {
+            throw new IllegalStateException("Ordering key needs to be set to shard the events of " + exchangeName);
+        }
+        EventCodec<E> eventCodec = codec != null ? codec : new JsonEventCodec<>(toJson, fromJson);
+        // content type is set in advance, so it doesn't need to be added to the properties on every publish
+        AMQP.BasicProperties eventProperties = properties.builder().contentType(eventCodec.contentType()).build();
         return new RabbitEventConfig<>() {
             @Override
             public @NotNull String exchangeName() {
@@ -72,7 +129,12 @@ public class RabbitEventConfigBuilder<E extends RabbitEvent> {
 
             @Override
             public AMQP.@NotNull BasicProperties properties() {
-                return properties;
+                return eventProperties;
+            }
+
+            @Override
+            public @NotNull String routingKey(@NotNull E event) {
+                return routingKey != null ? routingKey.apply(event) : exchangeRoutingKey;
             }
 
             @Override
@@ -84,6 +146,26 @@ public class RabbitEventConfigBuilder<E extends RabbitEvent> {
             public @NotNull Function<JSONObject, E> fromJson() {
                 return fromJson;
             }
+
+            @Override
+            public @Nullable Function<E, UUID> orderingKey() {
+                return orderingKey;
+            }
+
+            @Override
+            public @Nullable Function<E, UUID> presenceKey() {
+                return presenceKey;
+            }
+
+            @Override
+            public int shards() {
+                return shards;
+            }
+
+            @Override
+            public @NotNull EventCodec<E> codec() {
+                return eventCodec;
+            }
         };
     }
 }
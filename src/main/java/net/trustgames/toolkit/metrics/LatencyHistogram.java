@@ -0,0 +1,102 @@
+package net.trustgames.toolkit.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations, which can be recorded from any number of threads without locking or allocation.
+ * Every power of two is split into 4 buckets, so the percentiles are accurate to 25 %
+ * of the value, which is enough to tell where the time goes, with a fixed size of 2 KB.
+ * The unit of the values is up to the caller.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param value Duration to record, negative values (e.g. caused by clock skew between servers) are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * The values are read one by one, so values recorded in the meantime may be partially included
+     *
+     * @return Count, mean, max and percentiles of the recorded values
+     */
+    public @NotNull Snapshot snapshot() {
+        long[] snapshotCounts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshotCounts[i] = counts.get(i);
+            total += snapshotCounts[i];
+        }
+        long maxValue = max.get();
+        return new Snapshot(total,
+                total == 0 ? 0 : (double) sum.sum() / count.sum(),
+                percentile(snapshotCounts, total, 0.5, maxValue),
+                percentile(snapshotCounts, total, 0.95, maxValue),
+                percentile(snapshotCounts, total, 0.99, maxValue),
+                maxValue);
+    }
+
+    private static long percentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Values below 4 have their own bucket, the higher ones are bucketed
+     * by the position of the highest bit and the two bits after it
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        if (exponent >= 62) return Long.MAX_VALUE;
+        int subBucket = index & (SUB_BUCKETS - 1);
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * @param count Number of recorded values
+     * @param mean Mean of the recorded values
+     * @param p50 Median, rounded up to the end of its bucket
+     * @param p95 95th percentile, rounded up to the end of its bucket
+     * @param p99 99th percentile, rounded up to the end of its bucket
+     * @param max Highest recorded value
+     */
+    public record Snapshot(long count, double mean, long p50, long p95, long p99, long max) {
+    }
+}
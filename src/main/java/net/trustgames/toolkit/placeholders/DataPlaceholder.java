@@ -0,0 +1,63 @@
+package net.trustgames.toolkit.placeholders;
+
+import lombok.Getter;
+import net.kyori.adventure.text.Component;
+import net.trustgames.toolkit.database.player.data.config.PlayerDataType;
+import net.trustgames.toolkit.utils.LevelUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Placeholders showing the player's data, each computed from the value of one data type
+ */
+public enum DataPlaceholder {
+    LEVEL("player_level", PlayerDataType.XP, xp -> Component.text(LevelUtils.getLevelByXp(xp))),
+    LEVEL_PROGRESS("player_level_progress", PlayerDataType.XP, xp -> Component.text(String.format("%.1f", LevelUtils.getProgress(xp) * 100))),
+    XP("player_xp", PlayerDataType.XP, Component::text),
+    KILLS("player_kills", PlayerDataType.KILLS, Component::text),
+    DEATHS("player_deaths", PlayerDataType.DEATHS, Component::text),
+    GEMS("player_gems", PlayerDataType.GEMS, Component::text),
+    RUBIES("player_rubies", PlayerDataType.RUBIES, Component::text);
+
+    private static final Map<String, DataPlaceholder> BY_NAME = Arrays.stream(values())
+            .collect(Collectors.toMap(DataPlaceholder::getName, placeholder -> placeholder));
+
+    @Getter
+    private final String name;
+    @Getter
+    private final PlayerDataType dataType;
+    private final IntFunction<Component> format;
+    /**
+     * Shown until the value is loaded
+     */
+    @Getter
+    private final Component defaultValue;
+
+    DataPlaceholder(String name, PlayerDataType dataType, IntFunction<Component> format) {
+        this.name = name;
+        this.dataType = dataType;
+        this.format = format;
+        this.defaultValue = format.apply(0);
+    }
+
+    /**
+     * @param value Value of the data type
+     * @return Formatted value to insert
+     */
+    public @NotNull Component format(int value) {
+        return format.apply(value);
+    }
+
+    /**
+     * @param name Name of the placeholder without the expansion prefix
+     * @return The placeholder, or null if there is no data placeholder with the name
+     */
+    public static @Nullable DataPlaceholder getByName(@NotNull String name) {
+        return BY_NAME.get(name);
+    }
+}
@@ -1,19 +1,105 @@
 package net.trustgames.toolkit.placeholders;
 
 import io.github.miniplaceholders.api.Expansion;
+import lombok.Getter;
+import net.kyori.adventure.audience.Audience;
+import net.kyori.adventure.identity.Identity;
 import net.trustgames.toolkit.Toolkit;
+import net.trustgames.toolkit.luckperms.PrefixCache;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class PlaceholderManager {
+    private static final String EXPANSION_NAME = "tg";
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("<" + EXPANSION_NAME + "_([a-z0-9_]+)");
+    // templates usually come from the config, the limit only guards against caching dynamic strings
+    private static final int MAX_ANALYZED_TEMPLATES = 1024;
+
+    @Getter
+    private final PlaceholderValueCache valueCache;
+    @Getter
+    private final PrefixCache prefixCache = new PrefixCache();
+    private final Map<String, Set<DataPlaceholder>> analyzedTemplates = new ConcurrentHashMap<>();
 
     /**
+     * The value cache needs to be subscribed to the player data updates
+     * and the players removed from it when they leave.
+     * The prefix cache needs to be subscribed to the LuckPerms events.
+     *
      * @param toolkit instance of Toolkit
+     * @see PlaceholderValueCache
+     * @see PrefixCache
+     */
+    public PlaceholderManager(Toolkit toolkit) {
+        this.valueCache = new PlaceholderValueCache(toolkit);
+    }
+
+    /**
      * @return Builder with registered placeholders
      */
-    public static Expansion.Builder createPlaceholders(Toolkit toolkit) {
-        return Expansion.builder("tg")
+    public Expansion.Builder createPlaceholders() {
+        Expansion.Builder builder = Expansion.builder(EXPANSION_NAME)
                 //   .filter(Player.class)
-                .audiencePlaceholder("player_prefix_spaced", new PlayerPrefixSpacedPlaceholder())
-                .audiencePlaceholder("player_level", new PlayerLevelPlaceholder(toolkit))
-                .audiencePlaceholder("player_level_progress", new PlayerLevelProgressPlaceholder(toolkit));
+                .audiencePlaceholder("player_prefix_spaced", new PlayerPrefixSpacedPlaceholder(prefixCache));
+        for (DataPlaceholder placeholder : DataPlaceholder.values()) {
+            builder.audiencePlaceholder(placeholder.getName(), new PlayerDataPlaceholder(valueCache, placeholder));
+        }
+        return builder;
+    }
+
+    /**
+     * Loads the values of all the data placeholders in the template for the audience by one read,
+     * so the template can be rendered with the actual values right away
+     *
+     * @param audience Audience to render the template for
+     * @param template MiniMessage template
+     * @return Future completed once the values are loaded, or exceptionally if they couldn't be loaded
+     */
+    public CompletableFuture<Void> prepare(@NotNull Audience audience, @NotNull String template) {
+        Set<DataPlaceholder> placeholders = analyze(template);
+        if (placeholders.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return audience.get(Identity.UUID)
+                .map(uuid -> valueCache.load(uuid, placeholders))
+                .orElseGet(() -> CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * The result is cached, so the template is scanned only once
+     *
+     * @param template MiniMessage template
+     * @return Data placeholders used in the template
+     */
+    public @NotNull Set<DataPlaceholder> analyze(@NotNull String template) {
+        Set<DataPlaceholder> placeholders = analyzedTemplates.get(template);
+        if (placeholders != null) {
+            return placeholders;
+        }
+        placeholders = scan(template);
+        if (analyzedTemplates.size() < MAX_ANALYZED_TEMPLATES) {
+            analyzedTemplates.put(template, placeholders);
+        }
+        return placeholders;
+    }
+
+    private static Set<DataPlaceholder> scan(String template) {
+        Set<DataPlaceholder> placeholders = EnumSet.noneOf(DataPlaceholder.class);
+        Matcher matcher = PLACEHOLDER_PATTERN.matcher(template);
+        while (matcher.find()) {
+            DataPlaceholder placeholder = DataPlaceholder.getByName(matcher.group(1));
+            if (placeholder != null) {
+                placeholders.add(placeholder);
+            }
+        }
+        return Collections.unmodifiableSet(placeholders);
     }
 }
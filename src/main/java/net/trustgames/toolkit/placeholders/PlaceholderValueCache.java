@@ -0,0 +1,249 @@
+package net.trustgames.toolkit.placeholders;
+
+import net.kyori.adventure.text.Component;
+import net.trustgames.toolkit.Toolkit;
+import net.trustgames.toolkit.database.player.data.PlayerDataFetcher;
+import net.trustgames.toolkit.database.player.data.config.PlayerDataType;
+import net.trustgames.toolkit.database.player.data.event.PlayerDataUpdateEvent;
+import net.trustgames.toolkit.database.player.data.event.PlayerDataUpdateEventConfig;
+import net.trustgames.toolkit.database.player.data.event.PlayerDataUpdateTracker;
+import net.trustgames.toolkit.message_queue.event.RabbitEventBus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the already formatted values of the {@link DataPlaceholder}s of each player, so rendering
+ * the placeholders never waits for redis or the database. The values are loaded asynchronously,
+ * all the data types the placeholders need by one read, and then kept up to date by the
+ * {@link PlayerDataUpdateEvent}s. Until the values are loaded, the placeholders show the default values.
+ * If the load fails, the values stay missing and are loaded again on a later render,
+ * after a delay which grows with each failure.
+ * <p>
+ * Players should be removed once they leave the server to not keep their values forever.
+ */
+public final class PlaceholderValueCache {
+    private static final DataPlaceholder[] PLACEHOLDERS = DataPlaceholder.values();
+    private static final Set<DataPlaceholder> ALL_PLACEHOLDERS = Collections.unmodifiableSet(EnumSet.allOf(DataPlaceholder.class));
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+
+    private final Toolkit toolkit;
+    private final Map<UUID, PlayerValues> values = new ConcurrentHashMap<>();
+    private final Map<UUID, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+    private final Map<UUID, Backoff> backoffs = new ConcurrentHashMap<>();
+    private final PlayerDataUpdateTracker tracker = new PlayerDataUpdateTracker();
+
+    /**
+     * @param toolkit Instance, used to load the values
+     */
+    public PlaceholderValueCache(@NotNull Toolkit toolkit) {
+        this.toolkit = toolkit;
+    }
+
+    /**
+     * Subscribes to the updates of the data types the placeholders are computed from
+     *
+     * @param eventBus Event bus to receive the updates on
+     */
+    public void subscribe(@NotNull RabbitEventBus<? super PlayerDataUpdateEvent> eventBus) {
+        for (PlayerDataType dataType : dataTypes(ALL_PLACEHOLDERS)) {
+            eventBus.subscribe(PlayerDataUpdateEvent.class, new PlayerDataUpdateEventConfig().config(),
+                    PlayerDataUpdateEventConfig.bindingKey(dataType), this::update);
+        }
+    }
+
+    /**
+     * Doesn't block, if the values aren't loaded yet, all of them start loading in the background
+     * (unless the last load failed only a moment ago)
+     *
+     * @param uuid UUID of the player
+     * @param placeholder Placeholder to get the value of
+     * @return Value of the placeholder, or the default value if it isn't loaded yet
+     */
+    public @NotNull Component get(@NotNull UUID uuid, @NotNull DataPlaceholder placeholder) {
+        PlayerValues playerValues = values.get(uuid);
+        Component value = playerValues != null ? playerValues.get(placeholder) : null;
+        if (value != null) {
+            return value;
+        }
+        Backoff backoff = backoffs.get(uuid);
+        if (!loading.containsKey(uuid) && (backoff == null || backoff.retryAtMillis() <= System.currentTimeMillis())) {
+            load(uuid, ALL_PLACEHOLDERS);
+        }
+        return placeholder.getDefaultValue();
+    }
+
+    /**
+     * Loads the values of the placeholders which aren't loaded yet, by one read of their data types.
+     * If the player is already loading, the values are loaded after that, if still missing.
+     *
+     * @param uuid UUID of the player
+     * @param placeholders Placeholders to load the values of
+     * @return Future completed once the values are loaded, or exceptionally if they couldn't be loaded
+     */
+    public @NotNull CompletableFuture<Void> load(@NotNull UUID uuid, @NotNull Set<DataPlaceholder> placeholders) {
+        PlayerValues playerValues = values.get(uuid);
+        Set<PlayerDataType> missing = dataTypes(placeholders.stream()
+                .filter(placeholder -> playerValues == null || playerValues.get(placeholder) == null)
+                .toList());
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CompletableFuture<Void> inFlight = loading.putIfAbsent(uuid, future);
+        if (inFlight != null) {
+            // the player might have been removed in the meantime, then there is nothing to load
+            return inFlight.thenCompose(ignored -> values.containsKey(uuid)
+                    ? load(uuid, placeholders)
+                    : CompletableFuture.completedFuture(null));
+        }
+        new PlayerDataFetcher(toolkit).resolveIntDataAsync(uuid, missing)
+                .thenAccept(data -> {
+                    // not loading anymore means the player was removed in the meantime
+                    if (!loading.remove(uuid, future)) return;
+                    // the values updated during the load are newer than the loaded ones
+                    values.compute(uuid, (key, current) -> PlayerValues.orEmpty(current).withLoaded(missing, data));
+                })
+                .whenComplete((ignored, throwable) -> {
+                    loading.remove(uuid, future);
+                    if (throwable != null) {
+                        // the values stay missing, so they are loaded again once the delay passes
+                        backoffs.compute(uuid, (key, backoff) -> Backoff.next(backoff));
+                        future.completeExceptionally(throwable);
+                    } else {
+                        backoffs.remove(uuid);
+                        future.complete(null);
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Updates the values of the player, if they are loaded or loading on this server.
+     * Updates older than the last received one are dropped.
+     *
+     * @param event Received update
+     */
+    public void update(@NotNull PlayerDataUpdateEvent event) {
+        UUID uuid = event.uuid();
+        if (!values.containsKey(uuid) && !loading.containsKey(uuid)) return;
+        if (!tracker.accept(event)) return;
+
+        String value = event.value();
+        if (value == null) {
+            // updates from older versions don't carry the value, so it's loaded again
+            values.computeIfPresent(uuid, (key, current) -> current.without(event.dataType()));
+            load(uuid, ALL_PLACEHOLDERS);
+            return;
+        }
+        values.compute(uuid, (key, current) -> PlayerValues.orEmpty(current).with(event.dataType(), Integer.parseInt(value)));
+    }
+
+    /**
+     * @param uuid UUID of the player to forget the values of
+     */
+    public void remove(@NotNull UUID uuid) {
+        loading.remove(uuid);
+        values.remove(uuid);
+        backoffs.remove(uuid);
+        tracker.remove(uuid);
+    }
+
+    /**
+     * Forgets the values of all the players
+     */
+    public void clear() {
+        loading.clear();
+        values.clear();
+        backoffs.clear();
+        tracker.clear();
+    }
+
+    private static Set<PlayerDataType> dataTypes(Collection<DataPlaceholder> placeholders) {
+        Set<PlayerDataType> dataTypes = EnumSet.noneOf(PlayerDataType.class);
+        for (DataPlaceholder placeholder : placeholders) {
+            dataTypes.add(placeholder.getDataType());
+        }
+        return dataTypes;
+    }
+
+    /**
+     * Formatted values of the player's placeholders, indexed by the placeholder ordinal.
+     * Immutable, every change creates a copy, so it can be read without locking.
+     */
+    private static final class PlayerValues {
+        private static final PlayerValues EMPTY = new PlayerValues(new Component[PLACEHOLDERS.length]);
+        private final Component[] components;
+
+        private PlayerValues(Component[] components) {
+            this.components = components;
+        }
+
+        static PlayerValues orEmpty(@Nullable PlayerValues values) {
+            return values != null ? values : EMPTY;
+        }
+
+        @Nullable Component get(DataPlaceholder placeholder) {
+            return components[placeholder.ordinal()];
+        }
+
+        /**
+         * @return Copy with the placeholders of the data type formatted from the value
+         */
+        PlayerValues with(PlayerDataType dataType, int value) {
+            Component[] copy = components.clone();
+            for (DataPlaceholder placeholder : PLACEHOLDERS) {
+                if (placeholder.getDataType() == dataType) {
+                    copy[placeholder.ordinal()] = placeholder.format(value);
+                }
+            }
+            return new PlayerValues(copy);
+        }
+
+        /**
+         * @return Copy without the values of the placeholders of the data type
+         */
+        PlayerValues without(PlayerDataType dataType) {
+            Component[] copy = components.clone();
+            for (DataPlaceholder placeholder : PLACEHOLDERS) {
+                if (placeholder.getDataType() == dataType) {
+                    copy[placeholder.ordinal()] = null;
+                }
+            }
+            return new PlayerValues(copy);
+        }
+
+        /**
+         * Missing values (no data in the database yet) are formatted from 0
+         *
+         * @return Copy with the loaded values of the placeholders which don't have a value yet
+         */
+        PlayerValues withLoaded(Set<PlayerDataType> dataTypes, Map<PlayerDataType, OptionalInt> data) {
+            Component[] copy = components.clone();
+            for (DataPlaceholder placeholder : PLACEHOLDERS) {
+                if (copy[placeholder.ordinal()] == null && dataTypes.contains(placeholder.getDataType())) {
+                    copy[placeholder.ordinal()] = placeholder.format(data.getOrDefault(placeholder.getDataType(), OptionalInt.empty()).orElse(0));
+                }
+            }
+            return new PlayerValues(copy);
+        }
+    }
+
+    /**
+     * @param failures Number of the loads which failed in a row
+     * @param retryAtMillis Time the values can be loaded again at
+     */
+    private record Backoff(int failures, long retryAtMillis) {
+
+        static Backoff next(@Nullable Backoff previous) {
+            int failures = previous == null ? 1 : previous.failures() + 1;
+            long delay = Math.min(MAX_RETRY_DELAY_MILLIS, RETRY_DELAY_MILLIS << Math.min(failures - 1, 16));
+            return new Backoff(failures, System.currentTimeMillis() + delay);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package net.trustgames.toolkit.placeholders;
+
+import io.github.miniplaceholders.api.placeholder.AudiencePlaceholder;
+import net.kyori.adventure.audience.Audience;
+import net.kyori.adventure.identity.Identity;
+import net.kyori.adventure.text.minimessage.Context;
+import net.kyori.adventure.text.minimessage.tag.Tag;
+import net.kyori.adventure.text.minimessage.tag.resolver.ArgumentQueue;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Inserts the cached value of the data placeholder, so rendering it never waits for the data
+ */
+public class PlayerDataPlaceholder implements AudiencePlaceholder {
+
+    private final PlaceholderValueCache valueCache;
+    private final DataPlaceholder placeholder;
+
+    public PlayerDataPlaceholder(PlaceholderValueCache valueCache, DataPlaceholder placeholder) {
+        this.valueCache = valueCache;
+        this.placeholder = placeholder;
+    }
+
+    @Override
+    public @Nullable Tag tag(@NotNull Audience audience, @NotNull ArgumentQueue queue, @NotNull Context ctx) {
+        return Tag.selfClosingInserting(audience.get(Identity.UUID)
+                .map(uuid -> valueCache.get(uuid, placeholder))
+                .orElse(placeholder.getDefaultValue()));
+    }
+}
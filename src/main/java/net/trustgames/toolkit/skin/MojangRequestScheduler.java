@@ -0,0 +1,382 @@
+package net.trustgames.toolkit.skin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.trustgames.toolkit.utils.UUIDUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+import static net.trustgames.toolkit.Toolkit.LOGGER;
+
+/**
+ * Sends the requests to the mojang servers no faster than they allow.
+ * The requests wait in a queue ordered by priority and take a token from the bucket before they are sent.
+ * Pending name lookups are sent together to the bulk profiles endpoint (up to 10 names per request),
+ * and lookups of a name or UUID which is already pending share the pending request.
+ * When mojang rejects a request anyway (429), the requests are put back to the queue and the bucket is emptied.
+ * <p>
+ * The limits apply per IP address, so all the fetchers should share {@link #shared()}.
+ */
+public final class MojangRequestScheduler {
+    static final int MAX_BULK_NAMES = 10;
+    private static final URI API_URI = URI.create("https://api.mojang.com/");
+    private static final URI SESSION_URI = URI.create("https://sessionserver.mojang.com/");
+    // mojang allows about 600 requests per 10 minutes, so 60 + 0.9 * 600 stays within it
+    private static final int DEFAULT_BURST = 60;
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 0.9;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(3))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    private static MojangRequestScheduler shared;
+
+    private final HttpClient httpClient;
+    private final URI apiUri;
+    private final URI sessionUri;
+    private final TokenBucket bucket;
+    private final Object lock = new Object();
+    private final PriorityQueue<NameLookup> names = new PriorityQueue<>();
+    private final Map<String, NameLookup> pendingNames = new HashMap<>();
+    private final PriorityQueue<ProfileLookup> profiles = new PriorityQueue<>();
+    private final Map<UUID, ProfileLookup> pendingProfiles = new HashMap<>();
+    private final Thread thread;
+    private long sequence;
+    private volatile boolean closed;
+
+    /**
+     * Priority of the lookup, lookups of the players who are waiting for the result go first
+     */
+    public enum Priority {
+        ONLINE,
+        BACKGROUND
+    }
+
+    /**
+     * Creates the scheduler for the mojang servers with their default limits
+     */
+    public MojangRequestScheduler() {
+        this(HTTP_CLIENT, API_URI, SESSION_URI, DEFAULT_BURST, DEFAULT_REQUESTS_PER_SECOND);
+    }
+
+    /**
+     * @param httpClient Client to send the requests with
+     * @param apiUri Base URI of the profiles API
+     * @param sessionUri Base URI of the session server
+     * @param burst Number of requests which can be sent at once after a quiet period
+     * @param requestsPerSecond Average number of requests per second
+     */
+    public MojangRequestScheduler(@NotNull HttpClient httpClient,
+                                  @NotNull URI apiUri,
+                                  @NotNull URI sessionUri,
+                                  int burst,
+                                  double requestsPerSecond) {
+        this.httpClient = httpClient;
+        this.apiUri = apiUri;
+        this.sessionUri = sessionUri;
+        this.bucket = new TokenBucket(burst, requestsPerSecond);
+        this.thread = new Thread(this::run, "TG-Toolkit mojang scheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return Scheduler shared by the whole JVM, created on the first call
+     */
+    public static synchronized @NotNull MojangRequestScheduler shared() {
+        if (shared == null) {
+            shared = new MojangRequestScheduler();
+        }
+        return shared;
+    }
+
+    /**
+     * @param playerName Name of the player
+     * @param priority Priority of the lookup
+     * @return Future of the UUID, empty if there is no player with the name
+     */
+    public @NotNull CompletableFuture<Optional<UUID>> lookupUUID(@NotNull String playerName, @NotNull Priority priority) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new CancellationException("Mojang request scheduler was closed"));
+        }
+        synchronized (lock) {
+            // names are case-insensitive
+            NameLookup lookup = pendingNames.get(playerName.toLowerCase(Locale.ROOT));
+            if (lookup == null) {
+                lookup = new NameLookup(playerName, priority, sequence++);
+                pendingNames.put(lookup.key(), lookup);
+                names.add(lookup);
+                lock.notifyAll();
+            } else {
+                raisePriority(names, lookup, priority);
+            }
+            return lookup.future;
+        }
+    }
+
+    /**
+     * @param uuid UUID of the player
+     * @param priority Priority of the lookup
+     * @return Future of the session profile with the signed textures, empty if there is no such player
+     */
+    public @NotNull CompletableFuture<Optional<JsonObject>> lookupProfile(@NotNull UUID uuid, @NotNull Priority priority) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new CancellationException("Mojang request scheduler was closed"));
+        }
+        synchronized (lock) {
+            ProfileLookup lookup = pendingProfiles.get(uuid);
+            if (lookup == null) {
+                lookup = new ProfileLookup(uuid, priority, sequence++);
+                pendingProfiles.put(uuid, lookup);
+                profiles.add(lookup);
+                lock.notifyAll();
+            } else {
+                raisePriority(profiles, lookup, priority);
+            }
+            return lookup.future;
+        }
+    }
+
+    /**
+     * Stops the scheduler and fails the lookups which weren't sent yet
+     */
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        synchronized (lock) {
+            for (NameLookup lookup : names) {
+                lookup.future.completeExceptionally(new CancellationException("Mojang request scheduler was closed"));
+            }
+            for (ProfileLookup lookup : profiles) {
+                lookup.future.completeExceptionally(new CancellationException("Mojang request scheduler was closed"));
+            }
+            names.clear();
+            profiles.clear();
+            pendingNames.clear();
+            pendingProfiles.clear();
+        }
+    }
+
+    private <L extends Lookup> void raisePriority(PriorityQueue<L> queue, L lookup, Priority priority) {
+        // the queue only reorders on insertion, so the lookup is inserted again; if it isn't queued, it's already sent
+        if (priority.compareTo(lookup.priority) < 0 && queue.remove(lookup)) {
+            lookup.priority = priority;
+            queue.add(lookup);
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                synchronized (lock) {
+                    while (names.isEmpty() && profiles.isEmpty()) {
+                        lock.wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long waitNanos = bucket.tryAcquire();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+                continue;
+            }
+
+            List<NameLookup> nameBatch = new ArrayList<>(MAX_BULK_NAMES);
+            ProfileLookup profileLookup = null;
+            synchronized (lock) {
+                NameLookup nextName = names.peek();
+                ProfileLookup nextProfile = profiles.peek();
+                if (nextName != null && (nextProfile == null || nextName.compareTo(nextProfile) < 0)) {
+                    // one request resolves up to 10 names, so the rest of the names go along regardless of their priority
+                    while (!names.isEmpty() && nameBatch.size() < MAX_BULK_NAMES) {
+                        nameBatch.add(names.poll());
+                    }
+                } else {
+                    profileLookup = profiles.poll();
+                }
+            }
+
+            if (!nameBatch.isEmpty()) {
+                sendNames(nameBatch);
+            } else if (profileLookup != null) {
+                sendProfile(profileLookup);
+            }
+        }
+    }
+
+    private void sendNames(List<NameLookup> batch) {
+        JsonArray body = new JsonArray();
+        for (NameLookup lookup : batch) {
+            body.add(lookup.playerName);
+        }
+        HttpRequest request = HttpRequest.newBuilder(apiUri.resolve("profiles/minecraft"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, throwable) -> {
+            if (throwable == null && response.statusCode() == 429) {
+                retry(names, batch);
+                return;
+            }
+            try {
+                if (throwable != null) throw throwable;
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException("Bulk profile lookup failed with status " + response.statusCode());
+                }
+                Map<String, UUID> uuids = new HashMap<>();
+                for (JsonElement profile : JsonParser.parseString(response.body()).getAsJsonArray()) {
+                    JsonObject profileObject = profile.getAsJsonObject();
+                    uuids.put(profileObject.get("name").getAsString().toLowerCase(Locale.ROOT),
+                            UUIDUtils.fromTrimmed(profileObject.get("id").getAsString()));
+                }
+                for (NameLookup lookup : batch) {
+                    complete(lookup, Optional.ofNullable(uuids.get(lookup.key())));
+                }
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Could not look up the UUIDs of " + batch.size() + " names from mojang servers", t);
+                for (NameLookup lookup : batch) {
+                    fail(lookup, t);
+                }
+            }
+        });
+    }
+
+    private void sendProfile(ProfileLookup lookup) {
+        String trimmedUUID = lookup.uuid.toString().replace("-", "");
+        HttpRequest request = HttpRequest.newBuilder(sessionUri.resolve("session/minecraft/profile/" + trimmedUUID + "?unsigned=false"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, throwable) -> {
+            if (throwable == null && response.statusCode() == 429) {
+                retry(profiles, List.of(lookup));
+                return;
+            }
+            try {
+                if (throwable != null) throw throwable;
+                int status = response.statusCode();
+                // mojang answers with no content (or not found) if there is no such profile
+                if (status == 204 || status == 404) {
+                    complete(lookup, Optional.empty());
+                } else if (status == 200) {
+                    complete(lookup, Optional.of(JsonParser.parseString(response.body()).getAsJsonObject()));
+                } else {
+                    throw new IllegalStateException("Session profile lookup failed with status " + status);
+                }
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Could not look up the session profile of " + lookup.uuid + " from mojang servers", t);
+                fail(lookup, t);
+            }
+        });
+    }
+
+    /**
+     * Puts the rejected lookups back to the queue (with their original order) and waits for the bucket to refill
+     */
+    private <L extends Lookup> void retry(PriorityQueue<L> queue, List<L> lookups) {
+        LOGGER.warning("Mojang rate limit was exceeded, " + lookups.size() + " lookups will be retried");
+        bucket.drain();
+        synchronized (lock) {
+            if (closed) {
+                for (L lookup : lookups) {
+                    fail(lookup, new CancellationException("Mojang request scheduler was closed"));
+                }
+                return;
+            }
+            queue.addAll(lookups);
+            lock.notifyAll();
+        }
+    }
+
+    private <T> void complete(Lookup lookup, T result) {
+        removePending(lookup);
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> future = (CompletableFuture<T>) lookup.future();
+        future.complete(result);
+    }
+
+    private void fail(Lookup lookup, Throwable throwable) {
+        removePending(lookup);
+        lookup.future().completeExceptionally(throwable);
+    }
+
+    private void removePending(Lookup lookup) {
+        synchronized (lock) {
+            if (lookup instanceof NameLookup nameLookup) {
+                pendingNames.remove(nameLookup.key(), nameLookup);
+            } else if (lookup instanceof ProfileLookup profileLookup) {
+                pendingProfiles.remove(profileLookup.uuid, profileLookup);
+            }
+        }
+    }
+
+    private abstract static class Lookup implements Comparable<Lookup> {
+        final long sequence;
+        Priority priority;
+
+        Lookup(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        abstract CompletableFuture<?> future();
+
+        @Override
+        public int compareTo(@NotNull Lookup other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static final class NameLookup extends Lookup {
+        private final String playerName;
+        private final CompletableFuture<Optional<UUID>> future = new CompletableFuture<>();
+
+        NameLookup(String playerName, Priority priority, long sequence) {
+            super(priority, sequence);
+            this.playerName = playerName;
+        }
+
+        String key() {
+            return playerName.toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        CompletableFuture<?> future() {
+            return future;
+        }
+    }
+
+    private static final class ProfileLookup extends Lookup {
+        private final UUID uuid;
+        private final CompletableFuture<Optional<JsonObject>> future = new CompletableFuture<>();
+
+        ProfileLookup(UUID uuid, Priority priority, long sequence) {
+            super(priority, sequence);
+            this.uuid = uuid;
+        }
+
+        @Override
+        CompletableFuture<?> future() {
+            return future;
+        }
+    }
+}
@@ -5,16 +5,53 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.SetParams;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+/**
+ * Caches the skins in redis by their content. The skin data is stored once under the hash
+ * of its texture and signature, and the player entries only hold the hash,
+ * so the memory scales with the number of distinct skins instead of the number of names.
+ * The skin data can be compressed, the entries say how they are stored, so the setting can be changed at any time.
+ */
 public class SkinCache {
+    private static final String CONTENT_PREFIX = "skin:";
+    private static final byte[] TEXTURE_FIELD = "texture".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SIGNATURE_FIELD = "signature".getBytes(StandardCharsets.UTF_8);
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final byte BASE64 = 2;
+
     @Nullable private final JedisPool pool;
+    private final boolean compress;
 
     public SkinCache(@Nullable JedisPool pool) {
+        this(pool, true);
+    }
+
+    /**
+     * @param compress Whether to compress the skin data stored from now on
+     */
+    public SkinCache(@Nullable JedisPool pool, boolean compress) {
         this.pool = pool;
+        this.compress = compress;
     }
 
     /**
@@ -24,16 +61,42 @@ public class SkinCache {
      * @return Skin with filled in texture and signature (both not null)
      */
     public Optional<Skin> getSkin(@NotNull String playerName) {
+        return getCachedSkin(playerName).map(CachedSkin::skin);
+    }
+
+    /**
+     * Get the Skin by the name, together with the time it was fetched from the mojang servers
+     *
+     * @param playerName Name of the player
+     * @return Skin with filled in texture and signature (both not null)
+     */
+    public Optional<CachedSkin> getCachedSkin(@NotNull String playerName) {
         if (pool == null) {
             return Optional.empty();
         }
 
         try (Jedis jedis = pool.getResource()) {
-            List<String> fetchList = jedis.hmget(playerName, "skin_texture", "skin_signature");
-            jedis.expire(playerName, RedisCacheIntervalConfig.EXPIRY.getSeconds());
+            Pipeline pipeline = jedis.pipelined();
+            Response<List<String>> pointer = pipeline.hmget(playerName, "skin_hash", "skin_fetched_at");
+            pipeline.expire(playerName, RedisCacheIntervalConfig.EXPIRY.getSeconds());
+            pipeline.sync();
 
-            if (fetchList.contains(null)) return Optional.empty();
-            return Optional.of(new Skin(fetchList.get(0), fetchList.get(1)));
+            String hash = pointer.get().get(0);
+            if (hash == null) return Optional.empty();
+
+            byte[] contentKey = contentKey(hash);
+            Response<List<byte[]>> content = pipeline.hmget(contentKey, TEXTURE_FIELD, SIGNATURE_FIELD);
+            pipeline.expire(contentKey, RedisCacheIntervalConfig.EXPIRY.getSeconds());
+            pipeline.sync();
+
+            List<byte[]> fetchList = content.get();
+            String texture = decode(fetchList.get(0));
+            String signature = decode(fetchList.get(1));
+            if (texture == null || signature == null) return Optional.empty();
+            // skins cached before the time was stored are treated as stale
+            String fetchedAt = pointer.get().get(1);
+            Skin skin = new Skin(texture, signature);
+            return Optional.of(new CachedSkin(skin, fetchedAt == null ? 0 : Long.parseLong(fetchedAt)));
         }
     }
 
@@ -44,15 +107,150 @@ public class SkinCache {
      * @param skin Skin with filled in texture and signature
      */
     public void updateSkin(@NotNull String playerName, @NotNull Skin skin) {
+        updateSkin(playerName, skin, System.currentTimeMillis());
+    }
+
+    /**
+     * Replace the specified skin signature and texture in the cache with the given value.
+     * The skin data is only written if no other player has the same skin cached.
+     *
+     * @param playerName Name of the skin holder
+     * @param skin Skin with filled in texture and signature
+     * @param fetchedAt Time in millis the skin was fetched from the mojang servers
+     */
+    public void updateSkin(@NotNull String playerName, @NotNull Skin skin, long fetchedAt) {
         if (pool == null) return;
         if (skin.texture() == null || skin.signature() == null) return;
 
+        String hash = hash(skin.texture(), skin.signature());
+        byte[] contentKey = contentKey(hash);
         try (Jedis jedis = pool.getResource()) {
-            jedis.hmset(playerName, Map.of(
-                    "skin_texture", skin.texture(),
-                    "skin_signature", skin.signature()
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.hsetnx(contentKey, TEXTURE_FIELD, encode(skin.texture()));
+            pipeline.hsetnx(contentKey, SIGNATURE_FIELD, encode(skin.signature()));
+            pipeline.expire(contentKey, RedisCacheIntervalConfig.EXPIRY.getSeconds());
+            pipeline.hmset(playerName, Map.of(
+                    "skin_hash", hash,
+                    "skin_fetched_at", String.valueOf(fetchedAt)
             ));
-            jedis.expire(playerName, RedisCacheIntervalConfig.EXPIRY.getSeconds());
+            // the full copy of the skin stored by the older versions
+            pipeline.hdel(playerName, "skin_texture", "skin_signature");
+            pipeline.expire(playerName, RedisCacheIntervalConfig.EXPIRY.getSeconds());
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Takes the lease to fetch the skin from the mojang servers, so the other servers
+     * wait for the skin to appear in the cache instead of fetching it too.
+     * The lease isn't released, it just expires.
+     *
+     * @param playerName Name of the skin holder
+     * @param millis Time after which the lease expires
+     * @return True if the lease was taken, false if another server holds it
+     */
+    public boolean tryLease(@NotNull String playerName, long millis) {
+        if (pool == null) return true;
+
+        try (Jedis jedis = pool.getResource()) {
+            return jedis.set("skin_lease:" + playerName, "1", SetParams.setParams().nx().px(millis)) != null;
+        }
+    }
+
+    private static byte[] contentKey(String hash) {
+        return (CONTENT_PREFIX + hash).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return URL-safe base64 of the SHA-256 of the texture and signature
+     */
+    private static String hash(String texture, String signature) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(texture.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            digest.update(signature.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Both the texture and signature are base64, so they are stored decoded if they
+     * encode back to the same string, which saves a quarter. The decoded texture is JSON,
+     * which is then compressed further (the signature is random, so it isn't compressed).
+     *
+     * @return Value prefixed with the flags saying how it's stored
+     */
+    byte[] encode(@NotNull String value) {
+        byte flags = RAW;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (compress) {
+            byte[] decoded = decodeBase64(value);
+            if (decoded != null) {
+                flags |= BASE64;
+                bytes = decoded;
+            }
+            byte[] deflated = deflate(bytes);
+            if (deflated.length < bytes.length) {
+                flags |= DEFLATED;
+                bytes = deflated;
+            }
         }
+        byte[] encoded = new byte[bytes.length + 1];
+        encoded[0] = flags;
+        System.arraycopy(bytes, 0, encoded, 1, bytes.length);
+        return encoded;
+    }
+
+    /**
+     * @return Decoded value, or null if it's missing or empty (which a valid value never is, as it has the flags)
+     */
+    static @Nullable String decode(@Nullable byte[] encoded) {
+        if (encoded == null || encoded.length == 0) return null;
+        byte flags = encoded[0];
+        byte[] bytes = new byte[encoded.length - 1];
+        System.arraycopy(encoded, 1, bytes, 0, bytes.length);
+        if ((flags & DEFLATED) != 0) {
+            try (InputStream inflater = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+                bytes = inflater.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if ((flags & BASE64) != 0) {
+            return Base64.getEncoder().encodeToString(bytes);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Decoded bytes, or null if the value isn't base64 which encodes back to exactly the same string
+     */
+    private static @Nullable byte[] decodeBase64(String value) {
+        try {
+            byte[] decoded = Base64.getDecoder().decode(value);
+            return Base64.getEncoder().encodeToString(decoded).equals(value) ? decoded : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream(bytes.length);
+        try (OutputStream deflater = new DeflaterOutputStream(deflated)) {
+            deflater.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return deflated.toByteArray();
+    }
+
+    /**
+     * @param skin Skin with filled in texture and signature
+     * @param fetchedAt Time in millis the skin was fetched from the mojang servers
+     */
+    public record CachedSkin(@NotNull Skin skin, long fetchedAt) {
     }
 }
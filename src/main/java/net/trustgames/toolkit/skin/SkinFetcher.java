@@ -1,74 +1,396 @@
 package net.trustgames.toolkit.skin;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import net.trustgames.toolkit.Toolkit;
+import net.trustgames.toolkit.database.HikariManager;
+import net.trustgames.toolkit.database.player.data.PlayerDataCache;
+import net.trustgames.toolkit.database.skin.SkinDB;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import redis.clients.jedis.JedisPool;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
+import java.sql.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Handles getting the skin texture and signature from the mojang servers
  * and also caching it to save mojang api calls.
+ * Skins are looked up in the redis cache, then in the skins database table and only then
+ * on the mojang servers. The tiers which didn't have the skin are filled in with it.
+ * The requests are sent through {@link MojangRequestScheduler}, which keeps them within
+ * the mojang rate limits and doesn't block any thread while waiting for the response.
+ * <p>
+ * Skins older than the stale age are returned right away and refreshed in the background.
+ * Concurrent fetches of the same name share one fetch, and across the servers,
+ * only the server holding the short redis lease of the name fetches it from the mojang servers,
+ * while the others wait for the skin to appear in the redis cache.
  */
 public final class SkinFetcher {
 
     private static final Logger LOGGER = Toolkit.LOGGER;
+    private static final String tableName = SkinDB.getTableName();
+    private static final Duration DEFAULT_STALE_AGE = Duration.ofHours(6);
+    private static final long LEASE_MILLIS = 10000;
+    private static final long LEASE_POLL_MILLIS = 250;
 
     private final SkinCache skinCache;
+    private final PlayerDataCache playerDataCache;
+    private final @Nullable HikariManager hikariManager;
+    private final MojangRequestScheduler scheduler;
+    private final long staleAgeMillis;
+    private final Executor executor;
+    private final Map<String, CompletableFuture<Optional<Skin>>> inFlight = new ConcurrentHashMap<>();
 
+    /**
+     * Creates the fetcher without the database tier
+     */
     public SkinFetcher(JedisPool jedisPool) {
+        this(jedisPool, null, MojangRequestScheduler.shared());
+    }
+
+    /**
+     * @param toolkit Instance, its HikariCP manager is used for the database tier
+     */
+    public SkinFetcher(@NotNull Toolkit toolkit) {
+        this(toolkit.getJedisPool(), toolkit.getHikariManager(), MojangRequestScheduler.shared());
+    }
+
+    /**
+     * @param hikariManager Manager of the database with the skins table, or null to skip the database tier
+     * @param scheduler Scheduler to send the requests to the mojang servers through
+     * @see SkinDB
+     */
+    public SkinFetcher(JedisPool jedisPool, @Nullable HikariManager hikariManager, @NotNull MojangRequestScheduler scheduler) {
+        this(jedisPool, hikariManager, scheduler, DEFAULT_STALE_AGE);
+    }
+
+    /**
+     * @param hikariManager Manager of the database with the skins table, or null to skip the database tier
+     * @param scheduler Scheduler to send the requests to the mojang servers through
+     * @param staleAge Age after which the cached skin is refreshed in the background
+     * @see SkinDB
+     */
+    public SkinFetcher(JedisPool jedisPool, @Nullable HikariManager hikariManager,
+                       @NotNull MojangRequestScheduler scheduler, @NotNull Duration staleAge) {
+        this(jedisPool, hikariManager, scheduler, staleAge, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param hikariManager Manager of the database with the skins table, or null to skip the database tier
+     * @param scheduler Scheduler to send the requests to the mojang servers through
+     * @param staleAge Age after which the cached skin is refreshed in the background
+     * @param executor Executor to run the redis and database lookups and updates on
+     * @see SkinDB
+     */
+    public SkinFetcher(JedisPool jedisPool, @Nullable HikariManager hikariManager,
+                       @NotNull MojangRequestScheduler scheduler, @NotNull Duration staleAge,
+                       @NotNull Executor executor) {
         this.skinCache = new SkinCache(jedisPool);
+        this.playerDataCache = new PlayerDataCache(jedisPool);
+        this.hikariManager = hikariManager;
+        this.scheduler = scheduler;
+        this.staleAgeMillis = staleAge.toMillis();
+        this.executor = executor;
     }
 
     /**
      * First tries to retrieve the skin from the redis cache.
-     * If it's not in the redis cache, it tries to get it from the mojang servers,
+     * If it's not in the redis cache, it tries the database and then the mojang servers,
      * and then it updates it in the cache (if successfully fetched).
+     * Blocks until the skin is fetched, use {@link #fetchAsync(String)} where possible.
      *
      * @param playerName Name of the player (paid account)
      * @implNote API-Calls are rate limited by Mojang
      */
     public Optional<Skin> fetch(String playerName) {
-        Optional<Skin> optSkinData = skinCache.getSkin(playerName);
+        Optional<Skin> optSkinData = fromCache(playerName, MojangRequestScheduler.Priority.ONLINE);
         if (optSkinData.isPresent()) {
             return optSkinData;
         }
-        try {
-            URL nameURL = new URL("https://api.mojang.com/users/profiles/minecraft/" + playerName);
-            InputStreamReader reader_0 = new InputStreamReader(nameURL.openStream());
-            String trimmedUUID = JsonParser.parseReader(reader_0).getAsJsonObject().get("id").getAsString();
-
-            URL uuidURL = new URL("https://sessionserver.mojang.com/session/minecraft/profile/" + trimmedUUID + "?unsigned=false");
-            InputStreamReader reader_1 = new InputStreamReader(uuidURL.openStream());
-            JsonObject textureProperty = JsonParser.parseReader(reader_1).getAsJsonObject().get("properties").getAsJsonArray().get(0).getAsJsonObject();
-            String texture = textureProperty.get("value").getAsString();
-            String signature = textureProperty.get("signature").getAsString();
-
-
-            Skin skin = new Skin(texture, signature);
-            skinCache.updateSkin(playerName, skin);
-            return Optional.of(skin);
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not get skin data for name " + playerName + " from session servers!", e);
-            return Optional.empty();
-        }
+        return coalesce(playerName, () -> fetchUncached(playerName, MojangRequestScheduler.Priority.ONLINE)).join();
     }
 
     /**
-     * @see SkinFetcher#fetch(String)
+     * Fetches the skin of a player who is waiting for it
+     *
+     * @see SkinFetcher#fetchAsync(String, MojangRequestScheduler.Priority)
      */
     public CompletableFuture<Optional<Skin>> fetchAsync(String playerName) {
-        return CompletableFuture.supplyAsync(() -> fetch(playerName))
+        return fetchAsync(playerName, MojangRequestScheduler.Priority.ONLINE);
+    }
+
+    /**
+     * Only the redis and database lookups run on another thread,
+     * the requests to the mojang servers don't occupy any thread while waiting for the response
+     *
+     * @param priority Priority of the requests to the mojang servers
+     * @see SkinFetcher#fetch(String)
+     */
+    public CompletableFuture<Optional<Skin>> fetchAsync(String playerName, @NotNull MojangRequestScheduler.Priority priority) {
+        return CompletableFuture.supplyAsync(() -> fromCache(playerName, priority), executor)
+                .thenCompose(optSkinData -> optSkinData.isPresent()
+                        ? CompletableFuture.completedFuture(optSkinData)
+                        : coalesce(playerName, () -> fetchUncached(playerName, priority)))
                 .exceptionally(throwable -> {
                     Toolkit.LOGGER.log(Level.SEVERE, "Exception occurred while getting Skin texture and signature by name " + playerName + " async", throwable);
                     return Optional.empty();
                 });
     }
-}
\ No newline at end of file
+
+    /**
+     * Refreshes the skins in the database which were fetched longer than {@code maxAge} ago,
+     * at most {@code batchSize} of them every {@code period}. The requests have background priority,
+     * so they only use the part of the rate limit the online players don't need.
+     *
+     * @param executor Executor to run the refresh on
+     * @param maxAge Age after which the skin is refreshed
+     * @param period Time between the refreshes
+     * @param batchSize Max number of skins to refresh at once
+     * @return Future of the scheduled task, to cancel the refreshing
+     * @throws IllegalStateException if the fetcher doesn't have the database tier
+     */
+    public @NotNull ScheduledFuture<?> scheduleRefresh(@NotNull ScheduledExecutorService executor,
+                                                       @NotNull Duration maxAge,
+                                                       @NotNull Duration period,
+                                                       int batchSize) {
+        if (hikariManager == null) {
+            throw new IllegalStateException("Skins can't be refreshed without the database");
+        }
+        return executor.scheduleAtFixedRate(() -> refreshStale(maxAge, batchSize),
+                period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Skin from the redis cache, which is refreshed in the background if it's stale
+     */
+    private Optional<Skin> fromCache(String playerName, MojangRequestScheduler.Priority priority) {
+        Optional<SkinCache.CachedSkin> cached = skinCache.getCachedSkin(playerName);
+        cached.ifPresent(cachedSkin -> revalidateIfStale(playerName, null, cachedSkin.fetchedAt(), priority));
+        return cached.map(SkinCache.CachedSkin::skin);
+    }
+
+    /**
+     * Looks up the skin in the database and then on the mojang servers.
+     * The UUID is taken from the player data cache if it's there, so the name lookup can be skipped
+     *
+     * @return Future of the skin, empty if the name doesn't exist or the request failed
+     */
+    private CompletableFuture<Optional<Skin>> fetchUncached(String playerName, MojangRequestScheduler.Priority priority) {
+        Optional<UUID> knownUUID = playerDataCache.getUUID(playerName);
+        Optional<SkinCache.CachedSkin> storedSkin = knownUUID.isPresent()
+                ? loadSkin("uuid", knownUUID.get().toString())
+                : loadSkin("name", playerName);
+        if (storedSkin.isPresent()) {
+            SkinCache.CachedSkin cachedSkin = storedSkin.get();
+            skinCache.updateSkin(playerName, cachedSkin.skin(), cachedSkin.fetchedAt());
+            // this lookup is the one in flight, so only the lease keeps the other lookups from refreshing it too
+            if (isStale(cachedSkin.fetchedAt())) {
+                refreshLeased(playerName, knownUUID.orElse(null), priority);
+            }
+            return CompletableFuture.completedFuture(Optional.of(cachedSkin.skin()));
+        }
+        return fetchLeased(playerName, knownUUID.orElse(null), priority);
+    }
+
+    /**
+     * Fetches the skin from the mojang servers if this server takes the lease of the name,
+     * otherwise waits for the server holding it to put the skin to the redis cache.
+     * If the skin doesn't appear before the lease expires, it's fetched anyway.
+     *
+     * @param uuid UUID of the player if known, otherwise it's looked up
+     */
+    private CompletableFuture<Optional<Skin>> fetchLeased(String playerName, @Nullable UUID uuid, MojangRequestScheduler.Priority priority) {
+        if (skinCache.tryLease(playerName, LEASE_MILLIS)) {
+            return fetchFromMojang(playerName, uuid, priority);
+        }
+        return awaitLeaseHolder(playerName, System.currentTimeMillis() + LEASE_MILLIS)
+                .thenCompose(optSkin -> optSkin.isPresent()
+                        ? CompletableFuture.completedFuture(optSkin)
+                        : fetchFromMojang(playerName, uuid, priority));
+    }
+
+    /**
+     * Polls the redis cache until the skin appears in it or the deadline passes
+     */
+    private CompletableFuture<Optional<Skin>> awaitLeaseHolder(String playerName, long deadline) {
+        return CompletableFuture.supplyAsync(() -> skinCache.getSkin(playerName),
+                        CompletableFuture.delayedExecutor(LEASE_POLL_MILLIS, TimeUnit.MILLISECONDS))
+                .thenCompose(optSkin -> optSkin.isPresent() || System.currentTimeMillis() >= deadline
+                        ? CompletableFuture.completedFuture(optSkin)
+                        : awaitLeaseHolder(playerName, deadline));
+    }
+
+    /**
+     * Starts the refresh of the skin in the background, unless it's fresh,
+     * already being fetched on this server, or another server holds its lease
+     *
+     * @param fetchedAt Time in millis the skin was fetched from the mojang servers
+     */
+    private void revalidateIfStale(String playerName, @Nullable UUID uuid, long fetchedAt, MojangRequestScheduler.Priority priority) {
+        if (!isStale(fetchedAt) || inFlight.containsKey(playerName)) return;
+        coalesce(playerName, () -> refreshLeased(playerName, uuid, priority));
+    }
+
+    /**
+     * @return Future of the refreshed skin, empty if another server holds the lease
+     */
+    private CompletableFuture<Optional<Skin>> refreshLeased(String playerName, @Nullable UUID uuid, MojangRequestScheduler.Priority priority) {
+        return skinCache.tryLease(playerName, LEASE_MILLIS)
+                ? fetchFromMojang(playerName, uuid, priority)
+                : CompletableFuture.completedFuture(Optional.empty());
+    }
+
+    private boolean isStale(long fetchedAt) {
+        return System.currentTimeMillis() - fetchedAt >= staleAgeMillis;
+    }
+
+    /**
+     * Shares the fetch of the name with the concurrent fetches of it
+     *
+     * @param fetch Starts the fetch, called only if the name isn't already being fetched
+     * @return Future of the fetch in flight
+     */
+    private CompletableFuture<Optional<Skin>> coalesce(String playerName, Supplier<CompletableFuture<Optional<Skin>>> fetch) {
+        CompletableFuture<Optional<Skin>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<Skin>> existing = inFlight.putIfAbsent(playerName, future);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<Optional<Skin>> started;
+        try {
+            started = fetch.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        started.whenComplete((optSkin, throwable) -> {
+            inFlight.remove(playerName, future);
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(optSkin);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @param uuid UUID of the player if known, otherwise it's looked up
+     */
+    private CompletableFuture<Optional<Skin>> fetchFromMojang(String playerName, @Nullable UUID uuid, MojangRequestScheduler.Priority priority) {
+        CompletableFuture<Optional<UUID>> optUUID = uuid != null
+                ? CompletableFuture.completedFuture(Optional.of(uuid))
+                : scheduler.lookupUUID(playerName, priority);
+        return optUUID.thenCompose(lookedUp -> lookedUp.isPresent()
+                ? fetchFromMojang(lookedUp.get(), playerName, priority)
+                : CompletableFuture.completedFuture(Optional.<Skin>empty()));
+    }
+
+    /**
+     * Fetches the skin of the UUID and saves it to the database and the redis cache.
+     * The saving runs on the executor, not on the thread completing the response
+     *
+     * @param playerName Name to cache the skin under, if the current name from the profile differs,
+     *                   the skin is cached under both
+     */
+    private CompletableFuture<Optional<Skin>> fetchFromMojang(UUID uuid, String playerName, MojangRequestScheduler.Priority priority) {
+        return scheduler.lookupProfile(uuid, priority)
+                .thenApplyAsync(sessionProfile -> sessionProfile.map(json -> {
+                    JsonObject textureProperty = json.get("properties").getAsJsonArray().get(0).getAsJsonObject();
+                    Skin skin = new Skin(textureProperty.get("value").getAsString(), textureProperty.get("signature").getAsString());
+                    String currentName = json.has("name") ? json.get("name").getAsString() : playerName;
+                    saveSkin(uuid, currentName, skin);
+                    // the next lookup by the requested name needs to find it too
+                    skinCache.updateSkin(playerName, skin);
+                    if (!currentName.equals(playerName)) {
+                        skinCache.updateSkin(currentName, skin);
+                    }
+                    return skin;
+                }), executor)
+                .exceptionally(throwable -> {
+                    LOGGER.log(Level.WARNING, "Could not get skin data for name " + playerName + " from session servers!", throwable);
+                    return Optional.empty();
+                });
+    }
+
+    private void refreshStale(Duration maxAge, int batchSize) {
+        List<String[]> stale = new ArrayList<>();
+        try (Connection connection = hikariManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT uuid, name FROM " + tableName + " WHERE fetched_at < ? ORDER BY fetched_at LIMIT ?")) {
+            statement.setTimestamp(1, Timestamp.from(Instant.now().minus(maxAge)));
+            statement.setInt(2, batchSize);
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    stale.add(new String[]{results.getString("uuid"), results.getString("name")});
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            // the exception can't be let through, as it would stop the scheduled refresh
+            LOGGER.log(Level.SEVERE, "Exception occurred while getting stale skins from the database", e);
+            return;
+        }
+        for (String[] entry : stale) {
+            coalesce(entry[1], () -> refreshLeased(entry[1], UUID.fromString(entry[0]), MojangRequestScheduler.Priority.BACKGROUND));
+        }
+    }
+
+    /**
+     * Names can be taken over by another player, so several rows can have the same name.
+     * The most recently fetched one is taken, as it's the most likely to belong to the current owner
+     *
+     * @param column Column to find the skin by (uuid or name)
+     * @return Skin from the database, or empty if it isn't there or the database tier is disabled
+     */
+    private Optional<SkinCache.CachedSkin> loadSkin(String column, String value) {
+        if (hikariManager == null) return Optional.empty();
+        try (Connection connection = hikariManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "SELECT texture, signature, fetched_at FROM " + tableName + " WHERE " + column + " = ? ORDER BY fetched_at DESC LIMIT 1")) {
+            statement.setString(1, value);
+            try (ResultSet results = statement.executeQuery()) {
+                if (results.next()) {
+                    Skin skin = new Skin(results.getString("texture"), results.getString("signature"));
+                    return Optional.of(new SkinCache.CachedSkin(skin, results.getTimestamp("fetched_at").getTime()));
+                }
+                return Optional.empty();
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while getting skin from the database by " + column + " " + value, e);
+            return Optional.empty();
+        }
+    }
+
+    private void saveSkin(UUID uuid, String playerName, Skin skin) {
+        if (hikariManager == null) return;
+        try (Connection connection = hikariManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO " + tableName + " (uuid, name, texture, signature, fetched_at) VALUES (?, ?, ?, ?, ?) " +
+                             "ON DUPLICATE KEY UPDATE name = VALUES(name), texture = VALUES(texture), " +
+                             "signature = VALUES(signature), fetched_at = VALUES(fetched_at)")) {
+            statement.setString(1, uuid.toString());
+            statement.setString(2, playerName);
+            statement.setString(3, skin.texture());
+            statement.setString(4, skin.signature());
+            statement.setTimestamp(5, Timestamp.from(Instant.now()));
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Exception occurred while saving skin of " + uuid + " to the database", e);
+        }
+    }
+}
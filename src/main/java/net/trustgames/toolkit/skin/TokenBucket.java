@@ -0,0 +1,54 @@
+package net.trustgames.toolkit.skin;
+
+/**
+ * Allows short bursts of up to the capacity, while keeping the average rate at the refill rate.
+ * Over any period {@code t}, at most {@code capacity + t * refillPerSecond} tokens are taken.
+ */
+final class TokenBucket {
+    private final double capacity;
+    private final double refillPerNano;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param capacity Max number of tokens, the bucket starts full
+     * @param refillPerSecond Number of tokens added per second
+     */
+    TokenBucket(int capacity, double refillPerSecond) {
+        if (capacity < 1 || refillPerSecond <= 0) {
+            throw new IllegalArgumentException("Token bucket needs positive capacity and refill rate, got " + capacity + " and " + refillPerSecond);
+        }
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if there is one
+     *
+     * @return 0 if the token was taken, otherwise the nanos until the next token is available
+     */
+    synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / refillPerNano);
+    }
+
+    /**
+     * Removes all the tokens, e.g. when the upstream rejected a request for exceeding its limit
+     */
+    synchronized void drain() {
+        refill();
+        tokens = 0;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+    }
+}
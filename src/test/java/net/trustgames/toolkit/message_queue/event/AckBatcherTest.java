@@ -0,0 +1,109 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AckBatcherTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    /** Delivery tags of the basicAck calls */
+    private final List<Long> acks = new CopyOnWriteArrayList<>();
+    private final Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("basicAck")) {
+                    assertTrue((boolean) args[1], "acks need to be multiple");
+                    acks.add((long) args[0]);
+                    return null;
+                }
+                if (method.getName().equals("toString")) {
+                    return "channel";
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    @AfterEach
+    void stopScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void acksOnceBatchIsFull() {
+        AckBatcher batcher = new AckBatcher(channel, 3, 10_000, scheduler);
+
+        batcher.completed(1);
+        batcher.completed(2);
+        assertEquals(List.of(), acks);
+
+        batcher.completed(3);
+        assertEquals(List.of(3L), acks);
+    }
+
+    @Test
+    void acksBatchPerBatchSize() {
+        AckBatcher batcher = new AckBatcher(channel, 2, 10_000, scheduler);
+
+        for (long tag = 1; tag <= 6; tag++) {
+            batcher.completed(tag);
+        }
+
+        assertEquals(List.of(2L, 4L, 6L), acks);
+    }
+
+    @Test
+    void acksUpToTheFirstUnprocessedMessage() {
+        AckBatcher batcher = new AckBatcher(channel, 2, 10_000, scheduler);
+
+        batcher.completed(2);
+        batcher.completed(3);
+        // 1 is still being processed
+        assertEquals(List.of(), acks);
+
+        batcher.completed(1);
+        assertEquals(List.of(3L), acks);
+    }
+
+    @Test
+    void flushesUnfilledBatchAfterLinger() throws InterruptedException {
+        AckBatcher batcher = new AckBatcher(channel, 50, 20, scheduler);
+
+        batcher.completed(1);
+        batcher.completed(2);
+        assertEquals(List.of(), acks);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (acks.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(List.of(2L), acks);
+    }
+
+    @Test
+    void flushAcksRightAway() {
+        AckBatcher batcher = new AckBatcher(channel, 50, 10_000, scheduler);
+
+        batcher.completed(1);
+        batcher.flush();
+        batcher.flush();
+
+        assertEquals(List.of(1L), acks);
+    }
+
+    @Test
+    void acksRightAwayOnceClosed() {
+        AckBatcher batcher = new AckBatcher(channel, 50, 10_000, scheduler);
+        scheduler.shutdownNow();
+
+        batcher.completed(1);
+
+        assertEquals(List.of(1L), acks);
+    }
+}
@@ -0,0 +1,168 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.AMQP;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventSpoolTest {
+    /** Fits three of the test records, but not four */
+    private static final int CAPACITY = 500;
+    private static final AMQP.BasicProperties PROPERTIES = new AMQP.BasicProperties.Builder()
+            .contentType("application/json")
+            .build();
+
+    @TempDir
+    Path directory;
+
+    private final List<String> published = new CopyOnWriteArrayList<>();
+    private volatile boolean brokerDown = true;
+    private final List<EventSpool> spools = new ArrayList<>();
+
+    @AfterEach
+    void closeSpools() {
+        spools.forEach(EventSpool::close);
+    }
+
+    @Test
+    void dropsOldestWhenFull() throws Exception {
+        EventSpool spool = spool(SpoolOverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(spool.append("key" + i, PROPERTIES, body()));
+        }
+
+        assertTrue(spool.append("key3", PROPERTIES, body()));
+
+        assertEquals(List.of("key1", "key2", "key3"), replay(spool, 3));
+    }
+
+    @Test
+    void keepsDroppingOldestWhileFull() throws Exception {
+        EventSpool spool = spool(SpoolOverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spool.append("key" + i, PROPERTIES, body()));
+        }
+
+        assertEquals(List.of("key7", "key8", "key9"), replay(spool, 3));
+    }
+
+    @Test
+    void dropsNewestWhenFull() throws Exception {
+        EventSpool spool = spool(SpoolOverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(spool.append("key" + i, PROPERTIES, body()));
+        }
+
+        assertFalse(spool.append("key3", PROPERTIES, body()));
+
+        assertEquals(List.of("key0", "key1", "key2"), replay(spool, 3));
+    }
+
+    @Test
+    void rejectsRecordBiggerThanSpool() throws Exception {
+        EventSpool spool = spool(SpoolOverflowPolicy.DROP_OLDEST);
+        assertTrue(spool.append("key0", PROPERTIES, body()));
+
+        assertFalse(spool.append("big", PROPERTIES, new byte[CAPACITY]));
+
+        assertEquals(List.of("key0"), replay(spool, 1));
+    }
+
+    @Test
+    void replaysAfterReopening() throws Exception {
+        EventSpool spool = spool(SpoolOverflowPolicy.DROP_OLDEST);
+        AMQP.BasicProperties properties = PROPERTIES.builder()
+                .headers(Map.of("x-number", 5L, "x-text", "text"))
+                .deliveryMode(2)
+                .build();
+        spool.append("key0", properties, body());
+        spool.append("key1", PROPERTIES, body());
+        spool.close();
+        spools.remove(spool);
+
+        List<AMQP.BasicProperties> replayedProperties = new CopyOnWriteArrayList<>();
+        EventSpool reopened = spool(SpoolOverflowPolicy.DROP_OLDEST, (routingKey, props, body) -> {
+            publish(routingKey);
+            replayedProperties.add(props);
+        });
+
+        assertEquals(List.of("key0", "key1"), replay(reopened, 2));
+        assertEquals(Map.of("x-number", 5L, "x-text", "text"), replayedProperties.get(0).getHeaders());
+        assertEquals(2, replayedProperties.get(0).getDeliveryMode());
+        assertEquals("application/json", replayedProperties.get(1).getContentType());
+    }
+
+    @Test
+    void keepsRecordsWhenBrokerIsDown() throws Exception {
+        EventSpool spool = spool(SpoolOverflowPolicy.DROP_OLDEST);
+        spool.append("key0", PROPERTIES, body());
+        spool.append("key1", PROPERTIES, body());
+
+        spool.replay();
+        Thread.sleep(100);
+        assertFalse(spool.isEmpty());
+
+        assertEquals(List.of("key0", "key1"), replay(spool, 2));
+    }
+
+    @Test
+    void skipsRefusedRecord() throws Exception {
+        brokerDown = false;
+        EventSpool spool = spool(SpoolOverflowPolicy.DROP_OLDEST, (routingKey, properties, body) -> {
+            if (routingKey.equals("bad")) {
+                throw new IllegalArgumentException("refused");
+            }
+            publish(routingKey);
+        });
+        spool.append("key0", PROPERTIES, body());
+        spool.append("bad", PROPERTIES, body());
+        spool.append("key1", PROPERTIES, body());
+
+        assertEquals(List.of("key0", "key1"), replay(spool, 2));
+    }
+
+    private EventSpool spool(SpoolOverflowPolicy overflowPolicy) throws IOException {
+        return spool(overflowPolicy, (routingKey, properties, body) -> publish(routingKey));
+    }
+
+    private EventSpool spool(SpoolOverflowPolicy overflowPolicy, EventSpool.Publisher publisher) throws IOException {
+        EventSpool spool = new EventSpool(directory.resolve("events.spool"), CAPACITY, SpoolSyncPolicy.NEVER, overflowPolicy, publisher);
+        spools.add(spool);
+        return spool;
+    }
+
+    private void publish(String routingKey) throws IOException {
+        if (brokerDown) {
+            throw new IOException("broker is down");
+        }
+        published.add(routingKey);
+    }
+
+    /**
+     * Brings the broker up and waits for the spool to be replayed
+     */
+    private List<String> replay(EventSpool spool, int expected) throws InterruptedException {
+        brokerDown = false;
+        spool.replay();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((published.size() < expected || !spool.isEmpty()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(spool.isEmpty());
+        return published;
+    }
+
+    private static byte[] body() {
+        return new byte[100];
+    }
+}
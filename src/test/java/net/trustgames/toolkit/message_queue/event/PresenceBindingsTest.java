@@ -0,0 +1,104 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresenceBindingsTest {
+    private static final UUID FIRST = UUID.randomUUID();
+    private static final UUID SECOND = UUID.randomUUID();
+
+    /** Binding keys of the queue which are bound now */
+    private final Set<String> bindings = ConcurrentHashMap.newKeySet();
+    /** Number of the next broker calls to fail */
+    private final AtomicInteger failures = new AtomicInteger();
+    private final Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("toString")) {
+                    return "channel";
+                }
+                if (failures.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+                    throw new IOException("broker is down");
+                }
+                switch (method.getName()) {
+                    case "queueBindNoWait" -> bindings.add((String) args[2]);
+                    case "queueUnbind" -> bindings.remove((String) args[2]);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }
+                return null;
+            });
+    private final PresenceBindings presence = new PresenceBindings(channel, 0);
+
+    @AfterEach
+    void close() {
+        presence.close();
+    }
+
+    @Test
+    void bindsPlayersWhoJoin() throws Exception {
+        presence.add(new AmqpTransport.Destination("queue", false), "exchange", "data");
+
+        presence.update(FIRST, true);
+        presence.update(SECOND, true);
+        awaitBindings(Set.of("data." + FIRST, "data." + SECOND));
+
+        presence.update(FIRST, false);
+        awaitBindings(Set.of("data." + SECOND));
+    }
+
+    @Test
+    void bindsPresentPlayersForNewDestination() throws Exception {
+        presence.add(new AmqpTransport.Destination("queue", false), "exchange", "data");
+        presence.update(FIRST, true);
+        awaitBindings(Set.of("data." + FIRST));
+
+        presence.add(new AmqpTransport.Destination("queue", false), "exchange", "other");
+
+        assertEquals(Set.of("data." + FIRST, "other." + FIRST), bindings);
+    }
+
+    @Test
+    void retriesFailedChanges() throws Exception {
+        presence.add(new AmqpTransport.Destination("queue", false), "exchange", "data");
+        failures.set(1);
+
+        presence.update(FIRST, true);
+        presence.update(SECOND, true);
+
+        // neither of the changes is lost, the first one failed and the second one wasn't applied yet
+        awaitBindings(Set.of("data." + FIRST, "data." + SECOND));
+    }
+
+    @Test
+    void retriesFailedLeave() throws Exception {
+        presence.add(new AmqpTransport.Destination("queue", false), "exchange", "data");
+        presence.update(FIRST, true);
+        awaitBindings(Set.of("data." + FIRST));
+        failures.set(1);
+
+        presence.update(FIRST, false);
+
+        awaitBindings(Set.of());
+    }
+
+    private void awaitBindings(Set<String> expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!bindings.equals(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, bindings);
+        // nothing left to apply
+        Thread.sleep(50);
+        assertEquals(expected, bindings);
+    }
+}
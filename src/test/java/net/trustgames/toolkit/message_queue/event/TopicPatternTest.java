@@ -0,0 +1,50 @@
+package net.trustgames.toolkit.message_queue.event;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopicPatternTest {
+
+    @Test
+    void matchesSameKey() {
+        assertTrue(TopicPattern.matches("player-data-update.level", "player-data-update.level"));
+        assertFalse(TopicPattern.matches("player-data-update.level", "player-data-update.xp"));
+    }
+
+    @Test
+    void starMatchesExactlyOneWord() {
+        assertTrue(TopicPattern.matches("player-data-update.*", "player-data-update.level"));
+        assertFalse(TopicPattern.matches("player-data-update.*", "player-data-update"));
+        assertFalse(TopicPattern.matches("player-data-update.*", "player-data-update.level.069a79f4-44e9-4726-a5be-fca90e38aaf5"));
+        assertTrue(TopicPattern.matches("*.level", "player-data-update.level"));
+    }
+
+    @Test
+    void hashMatchesAnyNumberOfWords() {
+        assertTrue(TopicPattern.matches("player-data-update.level.#", "player-data-update.level"));
+        assertTrue(TopicPattern.matches("player-data-update.level.#", "player-data-update.level.069a79f4-44e9-4726-a5be-fca90e38aaf5"));
+        assertTrue(TopicPattern.matches("player-data-update.#", "player-data-update.level.a.b"));
+        assertFalse(TopicPattern.matches("player-data-update.level.#", "player-data-update.xp.069a79f4-44e9-4726-a5be-fca90e38aaf5"));
+        assertTrue(TopicPattern.matches("#", "anything.at.all"));
+        assertTrue(TopicPattern.matches("#", ""));
+    }
+
+    @Test
+    void hashInTheMiddle() {
+        assertTrue(TopicPattern.matches("a.#.z", "a.z"));
+        assertTrue(TopicPattern.matches("a.#.z", "a.b.c.z"));
+        assertFalse(TopicPattern.matches("a.#.z", "a.b.c"));
+        assertTrue(TopicPattern.matches("#.z", "z"));
+        assertTrue(TopicPattern.matches("a.#.*", "a.b"));
+        assertFalse(TopicPattern.matches("a.#.*", "a"));
+    }
+
+    @Test
+    void wordsAreComparedWhole() {
+        assertFalse(TopicPattern.matches("player-data-update.lev", "player-data-update.level"));
+        assertFalse(TopicPattern.matches("player-data-update.level", "player-data-update.level.x"));
+        // an empty word is still a word
+        assertTrue(TopicPattern.matches("a.*.c", "a..c"));
+    }
+}
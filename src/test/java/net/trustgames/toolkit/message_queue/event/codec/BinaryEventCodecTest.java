@@ -0,0 +1,87 @@
+package net.trustgames.toolkit.message_queue.event.codec;
+
+import net.trustgames.toolkit.database.player.data.config.PlayerDataType;
+import net.trustgames.toolkit.database.player.data.event.PlayerDataUpdateEvent;
+import net.trustgames.toolkit.database.player.data.event.PlayerDataUpdateEventConfig;
+import net.trustgames.toolkit.message_queue.event.config.RabbitEventConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryEventCodecTest {
+    private static final UUID PLAYER = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+
+    private final RabbitEventConfig<PlayerDataUpdateEvent> config = new PlayerDataUpdateEventConfig().config();
+    private final EventCodec<PlayerDataUpdateEvent> codec = config.codec();
+
+    @Test
+    void roundTripsEventWithValue() {
+        PlayerDataUpdateEvent event = new PlayerDataUpdateEvent(PLAYER, PlayerDataType.GEMS, "1250", 42, 1_700_000_000_000L);
+
+        byte[] body = codec.encode(event);
+
+        assertEquals(BinaryEventCodec.CONTENT_TYPE, codec.contentType());
+        assertEquals(event, codec.decode(body));
+    }
+
+    @Test
+    void roundTripsEventWithoutValue() {
+        PlayerDataUpdateEvent event = new PlayerDataUpdateEvent(PLAYER, PlayerDataType.RUBIES, null, 7, 1);
+
+        assertEquals(event, codec.decode(codec.encode(event)));
+    }
+
+    @Test
+    void isSmallerThanJson() {
+        PlayerDataUpdateEvent event = new PlayerDataUpdateEvent(PLAYER, PlayerDataType.GEMS, "1250", 42, 1_700_000_000_000L);
+        JsonEventCodec<PlayerDataUpdateEvent> json = new JsonEventCodec<>(config.toJson(), config.fromJson());
+
+        byte[] body = codec.encode(event);
+
+        // UUID 16, data type 1, version 1, value flag 1, value 1 + 4, epoch 6
+        assertEquals(30, body.length);
+        assertTrue(body.length * 3 < json.encode(event).length, "binary body should be less than a third of the JSON one");
+    }
+
+    @Test
+    void decodesBodyOfOlderVersion() {
+        byte[] body = BinaryWriter.withCapacity(17)
+                .writeUUID(PLAYER)
+                .writeEnum(PlayerDataType.KILLS)
+                .toByteArray();
+
+        assertEquals(new PlayerDataUpdateEvent(PLAYER, PlayerDataType.KILLS), codec.decode(body));
+    }
+
+    @Test
+    void refusesUnreadBytes() {
+        byte[] body = codec.encode(new PlayerDataUpdateEvent(PLAYER, PlayerDataType.XP, "10", 1, 1));
+        byte[] longer = new byte[body.length + 1];
+        System.arraycopy(body, 0, longer, 0, body.length);
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(longer));
+    }
+
+    @Test
+    void roundTripsPrimitives() {
+        byte[] body = BinaryWriter.withCapacity(1)
+                .writeVarInt(-1)
+                .writeVarInt(300)
+                .writeVarLong(Long.MAX_VALUE)
+                .writeLong(Long.MIN_VALUE)
+                .writeString("žluťoučký kůň")
+                .writeBoolean(true)
+                .toByteArray();
+
+        BinaryReader reader = BinaryReader.of(body);
+        assertEquals(-1, reader.readVarInt());
+        assertEquals(300, reader.readVarInt());
+        assertEquals(Long.MAX_VALUE, reader.readVarLong());
+        assertEquals(Long.MIN_VALUE, reader.readLong());
+        assertEquals("žluťoučký kůň", reader.readString());
+        assertTrue(reader.readBoolean());
+        assertEquals(0, reader.remaining());
+    }
+}
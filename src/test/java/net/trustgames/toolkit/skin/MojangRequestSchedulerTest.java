@@ -0,0 +1,240 @@
+package net.trustgames.toolkit.skin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the scheduler against a local stub of the mojang profiles API and session server
+ */
+class MojangRequestSchedulerTest {
+    private static final UUID NOTCH = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+
+    private HttpServer server;
+    private MojangRequestScheduler scheduler;
+    /** Names of each bulk request, in the order the requests were received */
+    private final List<List<String>> nameRequests = new CopyOnWriteArrayList<>();
+    /** UUIDs of the session profile requests, in the order the requests were received */
+    private final List<UUID> profileRequests = new CopyOnWriteArrayList<>();
+    private final Map<String, UUID> knownNames = new ConcurrentHashMap<>();
+    /** Number of the next session profile requests to reject for exceeding the rate limit */
+    private final AtomicInteger rateLimitedProfiles = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/profiles/minecraft", this::handleNames);
+        server.createContext("/session/minecraft/profile/", this::handleProfile);
+        server.start();
+        knownNames.put("notch", NOTCH);
+    }
+
+    @AfterEach
+    void stopServer() {
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    void looksUpSessionProfile() throws Exception {
+        scheduler = scheduler(60, 10);
+
+        Optional<JsonObject> profile = scheduler.lookupProfile(NOTCH, MojangRequestScheduler.Priority.ONLINE).get(5, TimeUnit.SECONDS);
+
+        assertTrue(profile.isPresent());
+        assertEquals("Notch", profile.get().get("name").getAsString());
+        assertEquals("texture", profile.get().getAsJsonArray("properties").get(0).getAsJsonObject().get("value").getAsString());
+        assertEquals(List.of(NOTCH), profileRequests);
+    }
+
+    @Test
+    void missingProfileIsEmpty() throws Exception {
+        scheduler = scheduler(60, 10);
+
+        Optional<JsonObject> profile = scheduler.lookupProfile(UUID.randomUUID(), MojangRequestScheduler.Priority.ONLINE).get(5, TimeUnit.SECONDS);
+
+        assertTrue(profile.isEmpty());
+    }
+
+    @Test
+    void looksUpUUIDCaseInsensitively() throws Exception {
+        scheduler = scheduler(60, 10);
+
+        assertEquals(Optional.of(NOTCH), scheduler.lookupUUID("NoTcH", MojangRequestScheduler.Priority.ONLINE).get(5, TimeUnit.SECONDS));
+        assertEquals(Optional.empty(), scheduler.lookupUUID("nobody", MojangRequestScheduler.Priority.ONLINE).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void closingFailsQueuedLookups() {
+        // the only token is taken by the first lookup, so the second one stays queued
+        scheduler = scheduler(1, 0.01);
+        scheduler.lookupProfile(NOTCH, MojangRequestScheduler.Priority.ONLINE);
+        var queued = scheduler.lookupProfile(UUID.randomUUID(), MojangRequestScheduler.Priority.ONLINE);
+
+        scheduler.close();
+
+        assertTrue(queued.isCompletedExceptionally());
+    }
+
+    @Test
+    void batchesPendingNamesByTen() throws Exception {
+        // the first lookup takes the only token, so the next ones queue up until the bucket refills
+        scheduler = scheduler(1, 2);
+        scheduler.lookupUUID("first", MojangRequestScheduler.Priority.ONLINE).get(5, TimeUnit.SECONDS);
+
+        List<CompletableFuture<Optional<UUID>>> lookups = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            lookups.add(scheduler.lookupUUID("player" + i, MojangRequestScheduler.Priority.ONLINE));
+        }
+        lookups.add(scheduler.lookupUUID("Notch", MojangRequestScheduler.Priority.ONLINE));
+        CompletableFuture.allOf(lookups.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+        List<Integer> sizes = nameRequests.stream().map(List::size).toList();
+        assertEquals(List.of(1, 10, 10, 6), sizes);
+        assertEquals(Optional.of(NOTCH), lookups.get(25).join());
+        assertEquals(Optional.empty(), lookups.get(0).join());
+    }
+
+    @Test
+    void sharesPendingLookups() throws Exception {
+        scheduler = scheduler(1, 2);
+        scheduler.lookupUUID("first", MojangRequestScheduler.Priority.ONLINE).get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Optional<UUID>> lookup = scheduler.lookupUUID("Notch", MojangRequestScheduler.Priority.BACKGROUND);
+        CompletableFuture<Optional<UUID>> sameLookup = scheduler.lookupUUID("notch", MojangRequestScheduler.Priority.ONLINE);
+
+        assertSame(lookup, sameLookup);
+        assertEquals(Optional.of(NOTCH), lookup.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of("first"), List.of("Notch")), nameRequests);
+    }
+
+    @Test
+    void sendsOnlineLookupsFirst() throws Exception {
+        scheduler = scheduler(1, 5);
+        scheduler.lookupProfile(NOTCH, MojangRequestScheduler.Priority.ONLINE).get(5, TimeUnit.SECONDS);
+
+        UUID background1 = UUID.randomUUID();
+        UUID background2 = UUID.randomUUID();
+        UUID online = UUID.randomUUID();
+        CompletableFuture<?> first = scheduler.lookupProfile(background1, MojangRequestScheduler.Priority.BACKGROUND);
+        CompletableFuture<?> second = scheduler.lookupProfile(background2, MojangRequestScheduler.Priority.BACKGROUND);
+        CompletableFuture<?> third = scheduler.lookupProfile(online, MojangRequestScheduler.Priority.ONLINE);
+        CompletableFuture.allOf(first, second, third).get(10, TimeUnit.SECONDS);
+
+        assertEquals(List.of(NOTCH, online, background1, background2), profileRequests);
+    }
+
+    @Test
+    void retriesRateLimitedLookups() throws Exception {
+        scheduler = scheduler(60, 10);
+        rateLimitedProfiles.set(2);
+
+        Optional<JsonObject> profile = scheduler.lookupProfile(NOTCH, MojangRequestScheduler.Priority.ONLINE).get(10, TimeUnit.SECONDS);
+
+        assertTrue(profile.isPresent());
+        assertEquals(List.of(NOTCH, NOTCH, NOTCH), profileRequests);
+    }
+
+    @Test
+    void waitsForTheBucketAfterRateLimit() throws Exception {
+        // the rejected request empties the bucket, so the retry waits for the next token instead of using the burst
+        scheduler = scheduler(60, 4);
+        rateLimitedProfiles.set(1);
+
+        long start = System.nanoTime();
+        scheduler.lookupProfile(NOTCH, MojangRequestScheduler.Priority.ONLINE).get(10, TimeUnit.SECONDS);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    MojangRequestScheduler scheduler(int burst, double requestsPerSecond) {
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        // the stub only speaks HTTP/1.1
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        return new MojangRequestScheduler(client, uri, uri, burst, requestsPerSecond);
+    }
+
+    private void handleNames(HttpExchange exchange) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (JsonElement name : JsonParser.parseString(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).getAsJsonArray()) {
+            names.add(name.getAsString());
+        }
+        nameRequests.add(names);
+
+        JsonArray profiles = new JsonArray();
+        for (String name : names) {
+            UUID uuid = knownNames.get(name.toLowerCase(Locale.ROOT));
+            if (uuid != null) {
+                JsonObject profile = new JsonObject();
+                profile.addProperty("id", uuid.toString().replace("-", ""));
+                profile.addProperty("name", name.toLowerCase(Locale.ROOT).equals("notch") ? "Notch" : name);
+                profiles.add(profile);
+            }
+        }
+        respond(exchange, 200, profiles.toString());
+    }
+
+    private void handleProfile(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String trimmed = path.substring(path.lastIndexOf('/') + 1);
+        UUID uuid = UUID.fromString(trimmed.replaceFirst("(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})", "$1-$2-$3-$4-$5"));
+        profileRequests.add(uuid);
+
+        if (rateLimitedProfiles.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0) {
+            respond(exchange, 429, "{}");
+            return;
+        }
+        if (!uuid.equals(NOTCH)) {
+            respond(exchange, 204, null);
+            return;
+        }
+        JsonObject texture = new JsonObject();
+        texture.addProperty("name", "textures");
+        texture.addProperty("value", "texture");
+        texture.addProperty("signature", "signature");
+        JsonArray properties = new JsonArray();
+        properties.add(texture);
+        JsonObject profile = new JsonObject();
+        profile.addProperty("id", trimmed);
+        profile.addProperty("name", "Notch");
+        profile.add("properties", properties);
+        respond(exchange, 200, profile.toString());
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
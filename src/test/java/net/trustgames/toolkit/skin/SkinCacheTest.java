@@ -0,0 +1,65 @@
+package net.trustgames.toolkit.skin;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SkinCacheTest {
+    static final String TEXTURE = Base64.getEncoder().encodeToString(("{\"timestamp\":1700000000000,"
+            + "\"profileId\":\"069a79f444e94726a5befca90e38aaf5\",\"profileName\":\"Notch\",\"signatureRequired\":true,"
+            + "\"textures\":{\"SKIN\":{\"url\":\"http://textures.minecraft.net/texture/"
+            + "292009a4925b58f02c77dadc3ecef07ea4c7472f64e0fdc32ce5522489362680\"}}}").getBytes(StandardCharsets.UTF_8));
+    static final String SIGNATURE;
+
+    static {
+        byte[] signature = new byte[512];
+        new Random(1).nextBytes(signature);
+        SIGNATURE = Base64.getEncoder().encodeToString(signature);
+    }
+
+    private final SkinCache compressing = new SkinCache(null, true);
+    private final SkinCache plain = new SkinCache(null, false);
+
+    @Test
+    void roundTripsTextureAndSignature() {
+        assertEquals(TEXTURE, SkinCache.decode(compressing.encode(TEXTURE)));
+        assertEquals(SIGNATURE, SkinCache.decode(compressing.encode(SIGNATURE)));
+    }
+
+    @Test
+    void compressedSkinIsSmaller() {
+        int raw = TEXTURE.length() + SIGNATURE.length();
+        int encoded = compressing.encode(TEXTURE).length + compressing.encode(SIGNATURE).length;
+
+        // the signature is random, so it only saves the quarter taken by base64
+        assertTrue(encoded < raw * 0.7, "encoded skin takes " + encoded + " bytes of " + raw);
+    }
+
+    @Test
+    void storesRawWithoutCompression() {
+        byte[] encoded = plain.encode(TEXTURE);
+
+        assertEquals(TEXTURE.length() + 1, encoded.length);
+        assertEquals(0, encoded[0]);
+        assertEquals(TEXTURE, SkinCache.decode(encoded));
+    }
+
+    @Test
+    void keepsValueWhichIsNotCanonicalBase64() {
+        // decodes fine, but wouldn't encode back to the same string
+        String value = "YQ";
+
+        assertEquals(value, SkinCache.decode(compressing.encode(value)));
+        assertEquals("not base64 at all!", SkinCache.decode(compressing.encode("not base64 at all!")));
+    }
+
+    @Test
+    void decodesMissingValueAsNull() {
+        assertNull(SkinCache.decode(null));
+        assertNull(SkinCache.decode(new byte[0]));
+    }
+}
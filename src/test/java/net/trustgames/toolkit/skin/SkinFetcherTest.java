@@ -0,0 +1,140 @@
+package net.trustgames.toolkit.skin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the fetcher against a local stub of the mojang profiles API and session server
+ */
+class SkinFetcherTest {
+    private static final String NOTCH_ID = "069a79f444e94726a5befca90e38aaf5";
+    private static final String BROKEN_ID = "0f0f0f0f0f0f0f0f0f0f0f0f0f0f0f0f";
+
+    private HttpServer server;
+    private MojangRequestScheduler scheduler;
+    private SkinFetcher fetcher;
+    /** Paths of the requests, in the order they were received */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/profiles/minecraft", this::handleNames);
+        server.createContext("/session/minecraft/profile/", this::handleProfile);
+        server.start();
+
+        URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+        // the stub only speaks HTTP/1.1
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        scheduler = new MojangRequestScheduler(client, uri, uri, 60, 10);
+        fetcher = new SkinFetcher(null, null, scheduler);
+    }
+
+    @AfterEach
+    void stopServer() {
+        scheduler.close();
+        server.stop(0);
+    }
+
+    @Test
+    void fetchesSkinByName() throws Exception {
+        Optional<Skin> skin = fetcher.fetchAsync("Notch").get(5, TimeUnit.SECONDS);
+
+        assertEquals(Optional.of(new Skin("texture", "signature")), skin);
+        assertEquals(List.of("/profiles/minecraft", "/session/minecraft/profile/" + NOTCH_ID), requests);
+    }
+
+    @Test
+    void blockingFetchGetsTheSameSkin() {
+        assertEquals(Optional.of(new Skin("texture", "signature")), fetcher.fetch("Notch"));
+    }
+
+    @Test
+    void unknownNameIsEmpty() throws Exception {
+        assertEquals(Optional.empty(), fetcher.fetchAsync("nobody").get(5, TimeUnit.SECONDS));
+        // there is no profile, so the session server isn't asked
+        assertEquals(List.of("/profiles/minecraft"), requests);
+    }
+
+    @Test
+    void failedRequestIsEmpty() throws Exception {
+        assertEquals(Optional.empty(), fetcher.fetchAsync("broken").get(5, TimeUnit.SECONDS));
+    }
+
+    private void handleNames(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestURI().getPath());
+        JsonArray profiles = new JsonArray();
+        for (JsonElement name : JsonParser.parseString(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)).getAsJsonArray()) {
+            String id = switch (name.getAsString()) {
+                case "Notch" -> NOTCH_ID;
+                case "broken" -> BROKEN_ID;
+                default -> null;
+            };
+            if (id != null) {
+                JsonObject profile = new JsonObject();
+                profile.addProperty("id", id);
+                profile.addProperty("name", name.getAsString());
+                profiles.add(profile);
+            }
+        }
+        respond(exchange, 200, profiles.toString());
+    }
+
+    private void handleProfile(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requests.add(path);
+        if (path.endsWith(BROKEN_ID)) {
+            respond(exchange, 500, "{}");
+            return;
+        }
+        if (!path.endsWith(NOTCH_ID)) {
+            respond(exchange, 204, null);
+            return;
+        }
+        JsonObject texture = new JsonObject();
+        texture.addProperty("name", "textures");
+        texture.addProperty("value", "texture");
+        texture.addProperty("signature", "signature");
+        JsonArray properties = new JsonArray();
+        properties.add(texture);
+        JsonObject profile = new JsonObject();
+        profile.addProperty("id", NOTCH_ID);
+        profile.addProperty("name", "Notch");
+        profile.add("properties", properties);
+        respond(exchange, 200, profile.toString());
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.trustgames.toolkit.skin;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    @Test
+    void startsFull() {
+        TokenBucket bucket = new TokenBucket(3, 0.001);
+
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    void waitsForTheNextToken() {
+        TokenBucket bucket = new TokenBucket(1, 10);
+        bucket.tryAcquire();
+
+        long waitNanos = bucket.tryAcquire();
+
+        assertTrue(waitNanos > 0);
+        assertTrue(waitNanos <= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 20);
+        bucket.tryAcquire();
+
+        Thread.sleep(100);
+
+        assertEquals(0, bucket.tryAcquire());
+    }
+
+    @Test
+    void doesNotRefillOverCapacity() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(2, 1000);
+
+        Thread.sleep(20);
+
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    void drainRemovesAllTokens() {
+        TokenBucket bucket = new TokenBucket(60, 1);
+
+        bucket.drain();
+
+        assertTrue(bucket.tryAcquire() > 0);
+    }
+
+    @Test
+    void rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0));
+    }
+}